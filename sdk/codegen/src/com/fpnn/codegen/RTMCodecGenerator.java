@@ -0,0 +1,752 @@
+package com.fpnn.codegen;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Build-time generator of com.fpnn.rtm.RTMCodec from codegen/rtm-codec.schema.
+ * The schema syntax is described in the schema file. The generated file is checked in.
+ *
+ * Usage: RTMCodecGenerator <schema file> <output java file>
+ */
+
+public class RTMCodecGenerator {
+
+    private static final String supportClass = "RTMCodecSupport";
+    private static final int maxLineLength = 120;
+
+    private static class Field {
+        String key;             //-- Wire key, "$target", or the label of a tuple column. null in results.
+        String type;
+        boolean optional;
+        String name;
+        String comment;
+    }
+
+    private static class Instance {
+        String name;
+        String targetKey;       //-- null: no $target key.
+        List<String> requiredKeys = new ArrayList<>();
+        String comment;
+    }
+
+    private static class Block {
+        String kind;            //-- encoder, result, map, tuple, or section.
+        String name;            //-- Title of sections.
+        String result;
+        boolean inner;
+        int line;
+        List<String> comments = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        List<Instance> instances = new ArrayList<>();
+    }
+
+    private final Map<String, String> exportedKeys = new LinkedHashMap<>();     //-- Key -> constant name.
+    private final List<Block> blocks = new ArrayList<>();
+    private final Map<String, Block> tuples = new LinkedHashMap<>();
+    private final StringBuilder out = new StringBuilder();
+
+    //=============================[ Parsing ]==============================//
+
+    private static IllegalArgumentException schemaError(int line, String message) {
+        return new IllegalArgumentException("Schema line " + line + ": " + message);
+    }
+
+    private void parse(List<String> lines) {
+        Block block = null;
+        boolean inKeys = false;
+
+        for (int i = 0; i < lines.size(); i++) {
+            int lineNumber = i + 1;
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+
+            String comment = null;
+            int commentStart = line.indexOf("--");
+            if (commentStart >= 0) {
+                comment = line.substring(commentStart + 2).trim();
+                line = line.substring(0, commentStart).trim();
+            }
+
+            String[] words = line.isEmpty() ? new String[0] : line.split("\\s+");
+
+            if (inKeys) {
+                if (words.length == 1 && words[0].equals("end"))
+                    inKeys = false;
+                else if (words.length == 1 || words.length == 2)
+                    exportedKeys.put(words[0], (words.length == 2) ? words[1] : keyConstantName(words[0]));
+                else
+                    throw schemaError(lineNumber, "Invalid key line.");
+                continue;
+            }
+
+            if (block == null) {
+                if (words.length == 1 && words[0].equals("keys")) {
+                    inKeys = true;
+                    continue;
+                }
+
+                if (words.length > 1 && words[0].equals("section")) {
+                    Block section = new Block();
+                    section.kind = "section";
+                    section.name = line.substring("section".length()).trim();
+                    blocks.add(section);
+                    continue;
+                }
+
+                block = parseBlockHeader(words, lineNumber);
+                if (comment != null)
+                    block.comments.add(comment);
+                continue;
+            }
+
+            if (words.length == 0) {
+                if (!block.fields.isEmpty())
+                    throw schemaError(lineNumber, "Block comments MUST precede the fields.");
+                block.comments.add(comment);
+            }
+            else if (words.length == 1 && words[0].equals("end")) {
+                validate(block);
+                blocks.add(block);
+                if (block.kind.equals("tuple"))
+                    tuples.put(block.name, block);
+                block = null;
+            }
+            else if (words[0].equals("instance")) {
+                if (!block.kind.equals("map") || words.length < 3)
+                    throw schemaError(lineNumber, "Invalid instance line.");
+
+                Instance instance = new Instance();
+                instance.name = words[1];
+                instance.targetKey = words[2].equals("-") ? null : words[2];
+                for (int k = 3; k < words.length; k++)
+                    instance.requiredKeys.add(words[k]);
+                instance.comment = comment;
+                block.instances.add(instance);
+            }
+            else
+                block.fields.add(parseField(block, words, comment, lineNumber));
+        }
+
+        if (block != null || inKeys)
+            throw schemaError(lines.size(), "Missing end.");
+    }
+
+    private static Block parseBlockHeader(String[] words, int lineNumber) {
+        Block block = new Block();
+        block.line = lineNumber;
+
+        if (words.length == 2 && (words[0].equals("encoder") || words[0].equals("result"))) {
+            block.kind = words[0];
+            block.name = words[1];
+        }
+        else if ((words.length == 3 || words.length == 4) && (words[0].equals("map") || words[0].equals("tuple"))) {
+            block.kind = words[0];
+            block.name = words[1];
+            block.result = words[2];
+            if (words.length == 4) {
+                if (!words[3].equals("inner"))
+                    throw schemaError(lineNumber, "Unknown modifier " + words[3]);
+                block.inner = true;
+            }
+        }
+        else
+            throw schemaError(lineNumber, "Invalid block header.");
+
+        return block;
+    }
+
+    private static Field parseField(Block block, String[] words, String comment, int lineNumber) {
+        Field field = new Field();
+        field.comment = comment;
+
+        if (block.kind.equals("result")) {
+            if (words.length != 2)
+                throw schemaError(lineNumber, "Invalid result field.");
+            field.type = words[0];
+            field.name = words[1];
+            return field;
+        }
+
+        if (words.length != 3)
+            throw schemaError(lineNumber, "Invalid field.");
+
+        field.key = words[0];
+        field.type = words[1];
+        field.name = words[2];
+        if (field.type.endsWith("?")) {
+            field.type = field.type.substring(0, field.type.length() - 1);
+            field.optional = true;
+        }
+        return field;
+    }
+
+    private static final List<String> encoderTypes = List.of("long", "int", "byte", "boolean", "string", "direction", "uids", "mtypes");
+    private static final List<String> decoderTypes = List.of("long", "int", "byte", "boolean", "string", "direction");
+
+    private void validate(Block block) {
+        for (Field field : block.fields) {
+            if (block.kind.equals("result"))
+                continue;
+
+            boolean known = block.kind.equals("encoder") ? encoderTypes.contains(field.type)
+                    : (decoderTypes.contains(field.type) || (field.type.startsWith("list:") && block.kind.equals("map")));
+            if (!known)
+                throw schemaError(block.line, "Field " + field.name + " of " + block.name + " has unknown type " + field.type);
+
+            if (field.optional) {
+                boolean allowed = block.kind.equals("encoder")
+                        && (field.key.equals("$target") || !isPrimitive(encoderJavaType(field.type)));
+                if (!allowed)
+                    throw schemaError(block.line, "Field " + field.name + " of " + block.name + " can't be optional.");
+            }
+
+            if (field.key.equals("$target") && block.kind.equals("tuple"))
+                throw schemaError(block.line, "Tuples have no keys.");
+        }
+
+        if (!block.instances.isEmpty()) {
+            if (block.inner)
+                throw schemaError(block.line, "Decoders of inner results have no instances.");
+            if (block.fields.size() > 31)
+                throw schemaError(block.line, "Too many fields for required field bits.");
+
+            for (Instance instance : block.instances) {
+                for (String key : instance.requiredKeys)
+                    if (findField(block, key) == null)
+                        throw schemaError(block.line, "Instance " + instance.name + " requires unknown key " + key);
+
+                if (instance.targetKey != null && findField(block, "$target") == null)
+                    throw schemaError(block.line, "Instance " + instance.name + " has a target key, but no $target field.");
+            }
+        }
+    }
+
+    private static Field findField(Block block, String key) {
+        for (Field field : block.fields)
+            if (field.key.equals(key))
+                return field;
+        return null;
+    }
+
+    //=============================[ Types ]==============================//
+
+    private static boolean isPrimitive(String javaType) {
+        return javaType.equals("long") || javaType.equals("int") || javaType.equals("byte") || javaType.equals("boolean");
+    }
+
+    private static String encoderJavaType(String type) {
+        switch (type) {
+            case "string":
+                return "String";
+            case "direction":
+                return "RTMClient.MessageDirection";
+            case "uids":
+                return "Set<Long>";
+            case "mtypes":
+                return "Set<Byte>";
+            default:
+                return type;
+        }
+    }
+
+    private static String packStatement(String type, String value) {
+        switch (type) {
+            case "long":
+                return "packer.packLong(" + value + ");";
+            case "int":
+            case "byte":
+                return "packer.packInt(" + value + ");";
+            case "boolean":
+                return "packer.packBoolean(" + value + ");";
+            case "string":
+                return supportClass + ".packString(packer, " + value + ");";
+            case "direction":
+                return "packer.packInt(" + value + ".value());";
+            case "uids":
+                return supportClass + ".packUids(packer, " + value + ");";
+            case "mtypes":
+                return supportClass + ".packMTypes(packer, " + value + ");";
+            default:
+                throw new IllegalStateException(type);
+        }
+    }
+
+    private String unpackExpression(String type) {
+        switch (type) {
+            case "long":
+                return "unpacker.unpackLong()";
+            case "int":
+                return "unpacker.unpackInt()";
+            case "byte":
+                return "(byte) unpacker.unpackInt()";
+            case "boolean":
+                return "unpacker.unpackBoolean()";
+            case "string":
+                return supportClass + ".unpackString(unpacker)";
+            case "direction":
+                return supportClass + ".direction(unpacker.unpackInt())";
+            default:
+                return tupleListMethod(tuple(type)) + "(unpacker)";
+        }
+    }
+
+    private Block tuple(String listType) {
+        Block tuple = tuples.get(listType.substring("list:".length()));
+        if (tuple == null)
+            throw new IllegalArgumentException("Unknown tuple in " + listType);
+        return tuple;
+    }
+
+    private static String tupleListMethod(Block tuple) {
+        return "unpack" + tuple.name + "List";
+    }
+
+    private static String simpleName(String type) {
+        return type.substring(type.lastIndexOf('.') + 1);
+    }
+
+    private static String newResult(Block block, String type) {
+        return block.inner ? "client.new " + simpleName(type) + "()" : "new " + type + "()";
+    }
+
+    private static String keyConstantName(String key) {
+        return "key" + Character.toUpperCase(key.charAt(0)) + key.substring(1);
+    }
+
+    private String keyConstant(String key) {
+        String name = exportedKeys.get(key);
+        return (name != null) ? name : keyConstantName(key);
+    }
+
+    //=============================[ Emitting ]==============================//
+
+    private void line(int indent, String text) {
+        for (int i = 0; i < indent; i++)
+            out.append("    ");
+        out.append(text).append('\n');
+    }
+
+    //-- Parameters wrap to a continuation line indented by 2 levels, when the line is too long.
+    private void signature(int indent, String head, List<String> parameters, String tail) {
+        StringBuilder current = new StringBuilder(head);
+        int width = indent * 4;
+        for (int i = 0; i < parameters.size(); i++) {
+            String parameter = parameters.get(i) + ((i + 1 < parameters.size()) ? "," : tail);
+            if (i > 0 && width + current.length() + 1 + parameter.length() > maxLineLength) {
+                line(indent, current.toString());
+                current.setLength(0);
+                current.append("        ");
+            }
+            else if (i > 0)
+                current.append(' ');
+            current.append(parameter);
+        }
+        if (parameters.isEmpty())
+            current.append(tail);
+        line(indent, current.toString());
+    }
+
+    private void blank() {
+        out.append('\n');
+    }
+
+    private static String trailingComment(String declaration, String comment) {
+        if (comment == null)
+            return declaration;
+
+        StringBuilder sb = new StringBuilder(declaration);
+        do
+            sb.append(' ');
+        while (sb.length() < 40);
+        return sb.append("//-- ").append(comment).toString();
+    }
+
+    private void blockComments(int indent, List<String> comments) {
+        if (comments.size() == 1)
+            line(indent, "//-- " + comments.get(0));
+        else if (comments.size() > 1) {
+            line(indent, "/*");
+            for (String comment : comments)
+                line(indent + 1, comment);
+            line(indent, "*/");
+        }
+    }
+
+    private boolean uses(String kind, String typePrefix) {
+        for (Block block : blocks)
+            if (kind == null || block.kind.equals(kind))
+                for (Field field : block.fields)
+                    if (field.type.startsWith(typePrefix))
+                        return true;
+        return false;
+    }
+
+    private boolean tracksFields() {
+        for (Block block : blocks)
+            if (tracksFields(block))
+                return true;
+        return false;
+    }
+
+    private void emitHeader() {
+        line(0, "package com.fpnn.rtm;");
+        blank();
+        line(0, "import com.fpnn.sdk.proto.PayloadDecoder;");
+        line(0, "import com.fpnn.sdk.proto.PayloadEncoder;");
+        if (!tuples.isEmpty())
+            line(0, "import org.msgpack.core.MessageFormatException;");
+        line(0, "import org.msgpack.core.MessagePacker;");
+        line(0, "import org.msgpack.core.MessageUnpacker;");
+        blank();
+        line(0, "import java.io.IOException;");
+        if (!tuples.isEmpty()) {
+            line(0, "import java.util.ArrayList;");
+            line(0, "import java.util.List;");
+        }
+        if (tracksFields())
+            line(0, "import java.util.NoSuchElementException;");
+        if (uses("encoder", "uids") || uses("encoder", "mtypes"))
+            line(0, "import java.util.Set;");
+        blank();
+        line(0, "/**");
+        line(0, " * Typed codecs of the RTM hot paths, replacing Map payloads: one encoder per quest schema,");
+        line(0, " * and one decoder per answer & server push schema. Keys are pre-encoded, encoders write fields");
+        line(0, " * with MessagePacker, and decoders read straight into result objects with MessageUnpacker.");
+        line(0, " *");
+        line(0, " * GENERATED by codegen/src/com/fpnn/codegen/RTMCodecGenerator.java from codegen/rtm-codec.schema.");
+        line(0, " * Don't edit: change the schema and run the generator.");
+        line(0, " */");
+        blank();
+        line(0, "class RTMCodec {");
+    }
+
+    private void emitKeys() {
+        Map<String, Boolean> keys = new LinkedHashMap<>();         //-- Key -> exported.
+        for (String key : exportedKeys.keySet())
+            keys.put(key, true);
+
+        for (Block block : blocks)
+            if (block.kind.equals("encoder"))
+                for (Field field : block.fields)
+                    if (!field.key.equals("$target"))
+                        keys.putIfAbsent(field.key, false);
+
+        blank();
+        line(1, "//-----------------[ Pre-encoded Keys ]-------------------");
+        blank();
+        for (Map.Entry<String, Boolean> entry : keys.entrySet()) {
+            String modifiers = entry.getValue() ? "static final" : "private static final";
+            line(1, modifiers + " byte[] " + keyConstant(entry.getKey()) + " = " + supportClass + ".key(\"" + entry.getKey() + "\");");
+        }
+    }
+
+    private void emitResult(Block block) {
+        blank();
+        blockComments(1, block.comments);
+        line(1, "static class " + block.name + " {");
+        for (Field field : block.fields)
+            line(2, trailingComment(field.type + " " + field.name + ";", field.comment));
+        line(1, "}");
+    }
+
+    private void emitEncoder(Block block) {
+        List<String> parameters = new ArrayList<>();
+
+        blank();
+        blockComments(1, block.comments);
+        line(1, "static class " + block.name + " implements PayloadEncoder {");
+        for (Field field : block.fields) {
+            if (field.key.equals("$target"))
+                line(2, trailingComment("private final byte[] targetKey;", field.optional ? "null: no " + field.name + "." : null));
+
+            line(2, trailingComment("private final " + encoderJavaType(field.type) + " " + field.name + ";", field.comment));
+        }
+        blank();
+
+        for (Field field : block.fields) {
+            if (field.key.equals("$target"))
+                parameters.add("byte[] targetKey");
+            parameters.add(encoderJavaType(field.type) + " " + field.name);
+        }
+        signature(2, block.name + "(", parameters, ") {");
+        for (Field field : block.fields) {
+            if (field.key.equals("$target"))
+                line(3, "this.targetKey = targetKey;");
+            line(3, "this." + field.name + " = " + field.name + ";");
+        }
+        line(2, "}");
+        blank();
+
+        line(2, "@Override");
+        line(2, "public void pack(MessagePacker packer) throws IOException {");
+        int required = 0;
+        List<String> presentChecks = new ArrayList<>();
+        for (Field field : block.fields) {
+            if (field.optional)
+                presentChecks.add(presentCheck(field));
+            else
+                required += 1;
+        }
+
+        if (presentChecks.isEmpty())
+            line(3, "packer.packMapHeader(" + required + ");");
+        else {
+            line(3, "int size = " + required + ";");
+            for (String check : presentChecks) {
+                line(3, "if (" + check + ")");
+                line(4, "size += 1;");
+            }
+            blank();
+            line(3, "packer.packMapHeader(size);");
+        }
+
+        for (Field field : block.fields) {
+            String key = field.key.equals("$target") ? "targetKey" : keyConstant(field.key);
+            int indent = 3;
+            if (field.optional) {
+                line(3, "if (" + presentCheck(field) + ") {");
+                indent = 4;
+            }
+            line(indent, "packer.writePayload(" + key + ");");
+            line(indent, packStatement(field.type, field.name));
+            if (field.optional)
+                line(3, "}");
+        }
+        line(2, "}");
+        line(1, "}");
+    }
+
+    private static String presentCheck(Field field) {
+        return (field.key.equals("$target") ? "targetKey" : field.name) + " != null";
+    }
+
+    private boolean needsClient(Block block) {
+        if (block.inner)
+            return true;
+
+        for (Field field : block.fields)
+            if (field.type.startsWith("list:") && tuple(field.type).inner)
+                return true;
+        return false;
+    }
+
+    private void emitMapDecoder(Block block) {
+        boolean client = needsClient(block);
+        boolean target = findField(block, "$target") != null;
+        boolean tracked = tracksFields(block);
+        List<String> parameters = new ArrayList<>();
+
+        blank();
+        blockComments(1, block.comments);
+        line(1, "static class " + block.name + " implements PayloadDecoder<" + block.result + "> {");
+
+        if (tracked) {
+            int bit = 1;
+            for (Field field : block.fields) {
+                line(2, "private static final int " + field.name + "Field = 0x" + Integer.toHexString(bit) + ";");
+                bit <<= 1;
+            }
+            blank();
+        }
+
+        if (client) {
+            line(2, trailingComment("private final RTMClient client;", "Outer instance of the result classes."));
+            parameters.add("RTMClient client");
+        }
+        if (target) {
+            line(2, trailingComment("private final String targetKey;", "null: no target field."));
+            parameters.add("String targetKey");
+        }
+        if (tracked) {
+            line(2, "private final int requiredFields;");
+            parameters.add("int requiredFields");
+        }
+
+        if (!parameters.isEmpty()) {
+            blank();
+            line(2, block.name + "(" + String.join(", ", parameters) + ") {");
+            if (client)
+                line(3, "this.client = client;");
+            if (target)
+                line(3, "this.targetKey = targetKey;");
+            if (tracked)
+                line(3, "this.requiredFields = requiredFields;");
+            line(2, "}");
+            blank();
+        }
+
+        line(2, "@Override");
+        line(2, "public " + block.result + " unpack(MessageUnpacker unpacker) throws IOException {");
+        line(3, block.result + " result = " + newResult(block, block.result) + ";");
+        for (Field field : block.fields)
+            if (field.type.startsWith("list:"))
+                line(3, "result." + field.name + " = new ArrayList<>();");
+        if (tracked)
+            line(3, "int fields = 0;");
+        blank();
+
+        line(3, "int count = unpacker.unpackMapHeader();");
+        line(3, "for (int i = 0; i < count; i++) {");
+        line(4, "String key = unpacker.unpackString();");
+        line(4, "if (unpacker.tryUnpackNil())");
+        line(5, "continue;");
+        blank();
+        line(4, "switch (key) {");
+        Field targetField = null;
+        for (Field field : block.fields) {
+            if (field.key.equals("$target")) {
+                targetField = field;
+                continue;
+            }
+
+            line(5, "case \"" + field.key + "\":");
+            line(6, "result." + field.name + " = " + unpackExpression(field.type) + ";");
+            if (tracked)
+                line(6, "fields |= " + field.name + "Field;");
+            line(6, "break;");
+        }
+        line(5, "default:");
+        if (targetField != null) {
+            line(6, "if (key.equals(targetKey)) {");
+            line(7, "result." + targetField.name + " = " + unpackExpression(targetField.type) + ";");
+            if (tracked)
+                line(7, "fields |= " + targetField.name + "Field;");
+            line(6, "}");
+            line(6, "else");
+            line(7, "unpacker.skipValue();");
+        }
+        else
+            line(6, "unpacker.skipValue();");
+        line(4, "}");
+        line(3, "}");
+
+        if (tracked) {
+            blank();
+            line(3, "if ((fields & requiredFields) != requiredFields)");
+            line(4, "throw new NoSuchElementException(\"" + block.result + " misses fields. Required: 0x\"");
+            line(6, "+ Integer.toHexString(requiredFields) + \", received: 0x\" + Integer.toHexString(fields));");
+            blank();
+        }
+        line(3, "return result;");
+        line(2, "}");
+
+        for (Field field : block.fields)
+            if (field.type.startsWith("list:"))
+                emitTupleList(tuple(field.type));
+
+        line(1, "}");
+
+        if (!block.instances.isEmpty())
+            emitInstances(block);
+    }
+
+    //-- Field bits are tracked only when some instance has required keys.
+    private static boolean tracksFields(Block block) {
+        for (Instance instance : block.instances)
+            if (!instance.requiredKeys.isEmpty())
+                return true;
+        return false;
+    }
+
+    private void emitTupleList(Block tuple) {
+        List<String> labels = new ArrayList<>();
+        for (Field field : tuple.fields)
+            labels.add(field.key);
+
+        int columns = tuple.fields.size();
+        blank();
+        line(2, "//-- Positional list: [" + String.join(", ", labels) + "]");
+        line(2, "private List<" + tuple.result + "> " + tupleListMethod(tuple) + "(MessageUnpacker unpacker) throws IOException {");
+        line(3, "int count = unpacker.unpackArrayHeader();");
+        line(3, "List<" + tuple.result + "> list = new ArrayList<>(count);");
+        blank();
+        line(3, "for (int i = 0; i < count; i++) {");
+        line(4, "int columns = unpacker.unpackArrayHeader();");
+        line(4, "if (columns < " + columns + ")");
+        line(5, "throw new MessageFormatException(\"" + tuple.name + " has \" + columns + \" fields, less than " + columns + "\");");
+        blank();
+        line(4, tuple.result + " item = " + newResult(tuple, tuple.result) + ";");
+        for (Field field : tuple.fields)
+            line(4, "item." + field.name + " = " + unpackExpression(field.type) + ";");
+        line(4, supportClass + ".skipValues(unpacker, columns - " + columns + ");");
+        blank();
+        line(4, "list.add(item);");
+        line(3, "}");
+        line(3, "return list;");
+        line(2, "}");
+    }
+
+    private void emitInstances(Block block) {
+        boolean target = findField(block, "$target") != null;
+
+        blank();
+        for (Instance instance : block.instances) {
+            int required = 0;
+            for (String key : instance.requiredKeys)
+                required |= 1 << block.fields.indexOf(findField(block, key));
+
+            List<String> arguments = new ArrayList<>();
+            if (target)
+                arguments.add((instance.targetKey != null) ? "\"" + instance.targetKey + "\"" : "null");
+            if (tracksFields(block))
+                arguments.add("0x" + Integer.toHexString(required));
+
+            String requiredKeys = String.join(", ", instance.requiredKeys);
+            if (instance.targetKey != null)
+                requiredKeys = requiredKeys.replace("$target", instance.targetKey);
+
+            if (instance.comment != null)
+                line(1, "//-- " + instance.comment);
+            else if (!instance.requiredKeys.isEmpty())
+                line(1, "//-- Requires " + requiredKeys);
+            line(1, "static final " + block.name + " " + instance.name + " = new " + block.name + "(" + String.join(", ", arguments) + ");");
+        }
+    }
+
+    private String generate() {
+        emitHeader();
+        emitKeys();
+
+        for (Block block : blocks) {
+            switch (block.kind) {
+                case "section":
+                    blank();
+                    line(1, "//=============================[ " + block.name + " ]==============================//");
+                    break;
+                case "result":
+                    emitResult(block);
+                    break;
+                case "encoder":
+                    emitEncoder(block);
+                    break;
+                case "map":
+                    emitMapDecoder(block);
+                    break;
+                default:
+                    break;      //-- Tuples are emitted into the decoders using them.
+            }
+        }
+
+        line(0, "}");
+        return out.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RTMCodecGenerator <schema file> <output java file>");
+            System.exit(1);
+        }
+
+        RTMCodecGenerator generator = new RTMCodecGenerator();
+        generator.parse(Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8));
+        Files.write(Paths.get(args[1]), generator.generate().getBytes(StandardCharsets.UTF_8));
+    }
+}
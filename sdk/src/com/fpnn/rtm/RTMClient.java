@@ -4,6 +4,7 @@ import com.fpnn.sdk.*;
 import com.fpnn.sdk.proto.Answer;
 import com.fpnn.sdk.proto.Message;
 import com.fpnn.sdk.proto.Quest;
+import org.msgpack.core.MessagePackException;
 
 import java.io.File;
 import java.io.IOException;
@@ -13,6 +14,8 @@ import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class RTMClient {
 
@@ -47,6 +50,10 @@ public class RTMClient {
     private Status status;
     private boolean autoAuth;
 
+    //-- Lock & Condition instead of monitor: waiting connect() & bye() won't pin virtual threads.
+    private final ReentrantLock lock;
+    private final Condition statusChanged;
+
     //-- auth info
     private int pid;
     private long uid;
@@ -64,9 +71,18 @@ public class RTMClient {
     private ConnectionWillCloseCallback rtmGatedWillCloseCallback;
     private TreeSet<RTMQuestCachedPackage> questCache;
 
+    //-- Ordered server pushes & callbacks on RTM gate connection
+    private boolean orderedEventDispatch;
+
     //-- For encryption
     private String curveName;
     private byte[] rtmPublicKey;
+    private boolean encryptStreamMode;
+    private boolean encryptReinforce;
+
+    //-- Typed answer decoders. They create results of the inner classes.
+    private final RTMCodec.HistoryAnswerDecoder historyAnswerDecoder;
+    private final RTMCodec.P2PHistoryAnswerDecoder p2pHistoryAnswerDecoder;
 
     //-- Last error info
     private int lastErrorCode;
@@ -80,6 +96,9 @@ public class RTMClient {
         status = Status.Closed;
         autoAuth = false;
 
+        lock = new ReentrantLock();
+        statusChanged = lock.newCondition();
+
         pid = 0;
         uid = 0;
         token = null;
@@ -89,6 +108,9 @@ public class RTMClient {
         authCallback = null;
         closedCallback = null;
 
+        historyAnswerDecoder = new RTMCodec.HistoryAnswerDecoder(this);
+        p2pHistoryAnswerDecoder = new RTMCodec.P2PHistoryAnswerDecoder(this);
+
         rtmGatedConnectedCallback = new ConnectionConnectedCallback() {
             @Override
             public void connectResult(InetSocketAddress peerAddress, boolean connected) {
@@ -106,8 +128,12 @@ public class RTMClient {
         questTimeout = 0;
         questCache = new TreeSet<>();
 
+        orderedEventDispatch = false;
+
         curveName = null;
         rtmPublicKey = null;
+        encryptStreamMode = false;
+        encryptReinforce = false;
 
         lastErrorCode = ErrorCode.FPNN_EC_OK.value();
         lastErrorMessage = null;
@@ -134,6 +160,7 @@ public class RTMClient {
     public RTMClient(String rtmGatedEndpoint) {
         this();
         rtmGated = TCPClient.create(rtmGatedEndpoint, false);
+        rtmGated.setLazyPayload(true);
         rtmGated.setConnectedCallback(rtmGatedConnectedCallback);
         rtmGated.setWillCloseCallback(rtmGatedWillCloseCallback);
     }
@@ -141,6 +168,7 @@ public class RTMClient {
     public RTMClient(String rtmGatedHost, int rtmGatedPort) {
         this();
         rtmGated = TCPClient.create(rtmGatedHost, rtmGatedPort, false);
+        rtmGated.setLazyPayload(true);
         rtmGated.setConnectedCallback(rtmGatedConnectedCallback);
         rtmGated.setWillCloseCallback(rtmGatedWillCloseCallback);
     }
@@ -150,8 +178,11 @@ public class RTMClient {
     //-----------------------------------------------------//
 
     public Status getStatus() {
-        synchronized (this) {
+        lock.lock();
+        try {
             return status;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -190,22 +221,41 @@ public class RTMClient {
         processor = handler;
 
         if (dispatch == null)
-            rtmGated.setQuestProcessor(new RTMQuestProcessor(processor, rtmGated), "com.fpnn.rtm.RTMQuestProcessor");
+            registerQuestHandlers(rtmGated);
+    }
+
+    //-- Pushes (e.g. consecutive pushmsg) reach RTMEventHandlerInterface in arrival order.
+    //-- Only effective for RTM gate connections created after this call.
+    public void setOrderedEventDispatch(boolean ordered) {
+        orderedEventDispatch = ordered;
+
+        if (rtmGated != null)
+            rtmGated.setOrderedExecution(ordered);
     }
 
     public void enableEncryptorByDerFile(String curve, String keyDerFilePath) throws IOException {
+        enableEncryptorByDerFile(curve, keyDerFilePath, false, false);
+    }
+
+    public void enableEncryptorByDerFile(String curve, String keyDerFilePath, boolean streamMode, boolean reinforce) throws IOException {
         byte[] keyBytes = Files.readAllBytes(Paths.get(keyDerFilePath));
-        enableEncryptorByDerData(curve, keyBytes);
+        enableEncryptorByDerData(curve, keyBytes, streamMode, reinforce);
     }
 
     public void enableEncryptorByDerData(String curve, byte[] rtmPublicKey) {
+        enableEncryptorByDerData(curve, rtmPublicKey, false, false);
+    }
+
+    public void enableEncryptorByDerData(String curve, byte[] rtmPublicKey, boolean streamMode, boolean reinforce) {
         this.curveName = curve;
         this.rtmPublicKey = rtmPublicKey;
+        this.encryptStreamMode = streamMode;
+        this.encryptReinforce = reinforce;
 
         if (dispatch != null)
-            dispatch.enableEncryptorByDerData(curve, rtmPublicKey);
+            dispatch.enableEncryptorByDerData(curve, rtmPublicKey, streamMode, reinforce);
         else
-            rtmGated.enableEncryptorByDerData(curve, rtmPublicKey);
+            rtmGated.enableEncryptorByDerData(curve, rtmPublicKey, streamMode, reinforce);
     }
 
     public static void configureForMultipleSynchronousConcurrentAPIs(int taskThreadCount) {
@@ -216,6 +266,11 @@ public class RTMClient {
         configureForMultipleSynchronousConcurrentAPIs(32);
     }
 
+    //-- Java 21+: each task runs in its own virtual thread, so synchronous APIs need no pool sizing.
+    public static void configureForVirtualThreadTaskExecutor() {
+        ClientEngine.setTaskExecutorMode(ClientEngine.TaskExecutorMode.VirtualThreadPerTask);
+    }
+
     public static boolean isAutoCleanup() {
         return ClientEngine.isAutoStop();
     }
@@ -232,6 +287,23 @@ public class RTMClient {
     //-----------------------------------------------------//
     //--                  Private APIs                   --//
     //-----------------------------------------------------//
+    private void registerQuestHandlers(TCPClient client) {
+        RTMQuestProcessor questProcessor = new RTMQuestProcessor(processor, client);
+
+        client.registerQuestHandler("kickout", questProcessor::kickout);
+        client.registerQuestHandler("kickoutroom", questProcessor::kickoutroom);
+        client.registerQuestHandler("ping", questProcessor::ping);
+        client.registerQuestHandler("pushmsg", questProcessor::pushmsg);
+        client.registerQuestHandler("pushgroupmsg", questProcessor::pushgroupmsg);
+        client.registerQuestHandler("pushroommsg", questProcessor::pushroommsg);
+        client.registerQuestHandler("pushbroadcastmsg", questProcessor::pushbroadcastmsg);
+        client.registerQuestHandler("transmsg", questProcessor::transmsg);
+        client.registerQuestHandler("transgroupmsg", questProcessor::transgroupmsg);
+        client.registerQuestHandler("transroommsg", questProcessor::transroommsg);
+        client.registerQuestHandler("transbroadcastmsg", questProcessor::transbroadcastmsg);
+        client.registerQuestHandler("pushunread", questProcessor::pushunread);
+    }
+
     private static class MidGenerator {
 
         static private long count = 0;
@@ -250,12 +322,15 @@ public class RTMClient {
     private void sendQuestInCache() {
 
         TreeSet<RTMQuestCachedPackage> swapCache;
-        synchronized (this) {
+        lock.lock();
+        try {
             swapCache = questCache;
             questCache = new TreeSet<>();
             status = Status.Connected;
 
-            notifyAll();
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
         }
 
         for (RTMQuestCachedPackage questPackage : swapCache) {
@@ -267,7 +342,7 @@ public class RTMClient {
         }
     }
 
-    //-- Only called in synchronized block.
+    //-- MUST call lock.lock() outside.
     private void clearQuestCache(int errorCode, String info) {
 
         for (RTMQuestCachedPackage questPackage : questCache) {
@@ -289,16 +364,21 @@ public class RTMClient {
 
     private void connectToRTMGated(TCPClient gateClient) {
 
-        synchronized (this) {
+        lock.lock();
+        try {
             status = Status.ConnectingToRTMGate;
+        } finally {
+            lock.unlock();
         }
 
         if (gateClient != null) {
             rtmGated = gateClient;
-            rtmGated.setQuestProcessor(new RTMQuestProcessor(processor, rtmGated), "com.fpnn.rtm.RTMQuestProcessor");
+            rtmGated.setLazyPayload(true);
+            registerQuestHandlers(rtmGated);
+            rtmGated.setOrderedExecution(orderedEventDispatch);
 
             if (curveName != null)
-                rtmGated.enableEncryptorByDerData(curveName, rtmPublicKey);
+                rtmGated.enableEncryptorByDerData(curveName, rtmPublicKey, encryptStreamMode, encryptReinforce);
 
             rtmGated.setConnectedCallback(rtmGatedConnectedCallback);
             rtmGated.setWillCloseCallback(rtmGatedWillCloseCallback);
@@ -326,8 +406,11 @@ public class RTMClient {
             return;
         }
 
-        synchronized (this) {
+        lock.lock();
+        try {
             status = Status.Authing;
+        } finally {
+            lock.unlock();
         }
 
         Quest quest = new Quest("auth");
@@ -339,7 +422,7 @@ public class RTMClient {
         rtmGated.sendQuest(quest, new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                boolean success = (boolean) answer.get("ok", false);
+                boolean success = answer.getBoolean("ok", false);
 
                 if (success) {
                     if (authCallback != null)
@@ -364,7 +447,7 @@ public class RTMClient {
                 if (authCallback != null) {
                     String exInfo = null;
                     if (answer != null)
-                        exInfo = (String) answer.get("ex");
+                        exInfo = answer.getString("ex");
 
                     authCallback.onException(errorCode, exInfo);
                 }
@@ -374,12 +457,13 @@ public class RTMClient {
 
     private void RTMGatedWillClose(boolean causedByError) {
 
-        synchronized (this) {
+        lock.lock();
+        try {
             while (status == Status.QueryRTMGatedAddress
                     || status == Status.ConnectingToRTMGate
                     || status == Status.Authing) {
                 try {
-                    this.wait();
+                    statusChanged.await();
                 } catch (InterruptedException e) {
                     ErrorRecorder.record("InterruptedException occurred when waiting RTM client connect & auth finish.", e);
                 }
@@ -389,8 +473,10 @@ public class RTMClient {
                 this.status = Status.Closed;
                 clearQuestCache(ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value(), "Connection closed.");
 
-                notifyAll();
+                statusChanged.signalAll();
             }
+        } finally {
+            lock.unlock();
         }
 
         if (closedCallback != null) {
@@ -400,7 +486,8 @@ public class RTMClient {
 
     private void RTMConnectFailedFinally(Status status, int errorCode, String message, boolean launchAuthCallback) {
 
-        synchronized (this) {
+        lock.lock();
+        try {
             lastErrorCode = errorCode;
             lastErrorMessage = message;
 
@@ -417,7 +504,9 @@ public class RTMClient {
                         });
             }
 
-            notifyAll();
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -432,7 +521,7 @@ public class RTMClient {
 
                 String endpoint = null;
                 try {
-                    endpoint = (String)answer.want("endpoint");
+                    endpoint = answer.wantString("endpoint");
                     TCPClient client = TCPClient.create(endpoint, false);
                     connectToRTMGated(client);
                 } catch (Exception e) {
@@ -446,7 +535,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 String errorInfo = "Fetch RTM gated address failed. Error code: " + errorCode + ", info: " + info;
                 ErrorRecorder.record(errorInfo);
@@ -456,7 +545,8 @@ public class RTMClient {
     }
 
     private boolean realConnect(int pid, long uid, String token, boolean recvUnreadNotification, RTMAuthCallback cb) {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == Status.AuthFailed && token == null)
                 return false;
 
@@ -468,6 +558,8 @@ public class RTMClient {
                 status = Status.QueryRTMGatedAddress;
             else
                 status = Status.ConnectingToRTMGate;
+        } finally {
+            lock.unlock();
         }
 
         this.pid = pid;
@@ -522,15 +614,18 @@ public class RTMClient {
     public boolean connect(int pid, long uid, String token, boolean recvUnreadNotification) throws InterruptedException {
         realConnect(pid, uid, token, recvUnreadNotification, null);
 
-        synchronized (this) {
+        lock.lock();
+        try {
             while (true) {
                 if (status == Status.AuthFailed || status == Status.Closed)
                     return false;
                 if (status == Status.Connected)
                     return true;
 
-                wait();
+                statusChanged.await();
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -547,7 +642,8 @@ public class RTMClient {
         boolean needReConnect = false;
         boolean cannotSend = false;
 
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == Status.Closed || status == Status.AuthFailed) {
                 if (autoAuth)
                     needReConnect = true;
@@ -563,13 +659,16 @@ public class RTMClient {
                 questCache.add(pkg);
                 return;
             }
+        } finally {
+            lock.unlock();
         }
 
         if (needReConnect) {
 
             realConnect(pid, uid, token, recvUnreadNotify, authCallback);
 
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (status == Status.AuthFailed || status == Status.Closed)
                     cannotSend = true;
                 else if (status == Status.Connected) {
@@ -581,6 +680,8 @@ public class RTMClient {
                     questCache.add(pkg);
                     return;
                 }
+            } finally {
+                lock.unlock();
             }
         }
 
@@ -633,7 +734,7 @@ public class RTMClient {
             if (callback != null) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 callback.onException(errorCode, info);
             }
@@ -649,7 +750,8 @@ public class RTMClient {
 
         AnswerCallback internalCallback = new FPNNDoneCallbackWrapper(callback);
 
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == Status.AuthFailed || status == Status.Closed) {
                 ClientEngine.getThreadPool().execute(
                         new Runnable() {
@@ -667,6 +769,8 @@ public class RTMClient {
 
             RTMQuestCachedPackage cachePackage = new RTMQuestCachedPackage(quest, internalCallback, timeoutInseconds);
             questCache.add(cachePackage);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -679,17 +783,20 @@ public class RTMClient {
         Quest quest = new Quest("bye");
         TCPClient rtmGatedClient;
 
-        synchronized (this) {
+        lock.lock();
+        try {
             while (true) {
                 if (status == Status.AuthFailed || status == Status.Closed)
                     return;
                 if (status == Status.Connected)
                     break;
 
-                wait();
+                statusChanged.await();
             }
 
             rtmGatedClient = rtmGated;
+        } finally {
+            lock.unlock();
         }
 
         rtmGatedClient.sendQuest(quest);
@@ -699,12 +806,8 @@ public class RTMClient {
     //-----------------[ sendmsg ]-----------------//
     public void sendMessage(long uid, byte mType, String message, String attrs, DoneCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("sendmsg");
-        quest.param("to", uid);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendmsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyTo, uid, MidGenerator.gen(), mType, message, attrs));
 
         AnswerCallback internalCallback = new FPNNDoneCallbackWrapper(callback);
 
@@ -717,12 +820,8 @@ public class RTMClient {
 
     public void sendMessage(long uid, byte mType, String message, String attrs, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("sendmsg");
-        quest.param("to", uid);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendmsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyTo, uid, MidGenerator.gen(), mType, message, attrs));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -740,12 +839,8 @@ public class RTMClient {
 
     public void sendMessages(Set<Long> uids, byte mType, String message, String attrs, DoneCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("sendmsgs");
-        quest.param("tos", uids);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendmsgs",
+                new RTMCodec.SendMessagesEncoder(uids, MidGenerator.gen(), mType, message, attrs));
 
         AnswerCallback internalCallback = new FPNNDoneCallbackWrapper(callback);
 
@@ -758,12 +853,8 @@ public class RTMClient {
 
     public void sendMessages(Set<Long> uids, byte mType, String message, String attrs, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("sendmsgs");
-        quest.param("tos", uids);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendmsgs",
+                new RTMCodec.SendMessagesEncoder(uids, MidGenerator.gen(), mType, message, attrs));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -781,12 +872,8 @@ public class RTMClient {
 
     public void sendGroupMessage(long groupId, byte mType, String message, String attrs, DoneCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("sendgroupmsg");
-        quest.param("gid", groupId);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendgroupmsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyGid, groupId, MidGenerator.gen(), mType, message, attrs));
 
         AnswerCallback internalCallback = new FPNNDoneCallbackWrapper(callback);
 
@@ -799,12 +886,8 @@ public class RTMClient {
 
     public void sendGroupMessage(long groupId, byte mType, String message, String attrs, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("sendgroupmsg");
-        quest.param("gid", groupId);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendgroupmsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyGid, groupId, MidGenerator.gen(), mType, message, attrs));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -822,12 +905,8 @@ public class RTMClient {
 
     public void sendRoomMessage(long roomId, byte mType, String message, String attrs, DoneCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("sendroommsg");
-        quest.param("rid", roomId);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendroommsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyRid, roomId, MidGenerator.gen(), mType, message, attrs));
 
         AnswerCallback internalCallback = new FPNNDoneCallbackWrapper(callback);
 
@@ -840,12 +919,8 @@ public class RTMClient {
 
     public void sendRoomMessage(long roomId, byte mType, String message, String attrs, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("sendroommsg");
-        quest.param("rid", roomId);
-        quest.param("mid", MidGenerator.gen());
-        quest.param("mtype", mType);
-        quest.param("msg", message);
-        quest.param("attrs", attrs);
+        Quest quest = new Quest("sendroommsg",
+                new RTMCodec.SendMessageEncoder(RTMCodec.keyRid, roomId, MidGenerator.gen(), mType, message, attrs));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -974,14 +1049,14 @@ public class RTMClient {
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                callback.done((String) answer.get("getpushname"));
+                callback.done(answer.getString("getpushname"));
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1004,7 +1079,7 @@ public class RTMClient {
             throw new RTMException(errorCode, errorMessage);
         }
 
-        return (String) answer.get("pushname");
+        return answer.getString("pushname");
     }
 
     public String getPushName() throws RTMException, InterruptedException {
@@ -1065,14 +1140,14 @@ public class RTMClient {
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                callback.done((double) answer.get("lat"), (double) answer.get("lng"));
+                callback.done(answer.wantDouble("lat"), answer.wantDouble("lng"));
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1097,8 +1172,8 @@ public class RTMClient {
 
         GeoInfo gi = new GeoInfo();
         gi.uid = uid;
-        gi.latitude = (double) answer.get("lat");
-        gi.longitude = (double) answer.get("lng");
+        gi.latitude = answer.wantDouble("lat");
+        gi.longitude = answer.wantDouble("lng");
         return gi;
     }
 
@@ -1197,7 +1272,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1320,7 +1395,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1373,7 +1448,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1491,7 +1566,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1544,7 +1619,7 @@ public class RTMClient {
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1600,60 +1675,38 @@ public class RTMClient {
         void onException(int errorCode, String message);
     }
 
-    @SuppressWarnings("unchecked")
-    private List<HistoryMessasge> buildHistoryMessageList(Answer answer) {
-        List<HistoryMessasge> messages = new LinkedList<>();
-
-        List rawList = (List)answer.get("msgs");
-        if (rawList == null)
-            return messages;
-
-        for( int i = 0 ; i < rawList.size() ; i++) {
-            List messageUnit = (List)rawList.get(i);
-
-            HistoryMessasge hm = new HistoryMessasge();
-            hm.id = (long) messageUnit.get(0);
-            hm.fromUid = (long) messageUnit.get(1);
-            hm.mType = (byte) messageUnit.get(2);
-            hm.fType = (byte) messageUnit.get(3);
-
-            hm.mid = (long) messageUnit.get(4);
-            hm.message = (String) messageUnit.get(5);
-            hm.attrs = (String) messageUnit.get(6);
-            hm.mTime = (int) messageUnit.get(7);
-
-            messages.add(hm);
+    private GetHistoryMessageResult decodeHistoryMessages(Answer answer) throws RTMException {
+        try {
+            return answer.decode(historyAnswerDecoder);
+        } catch (IOException | MessagePackException e) {
+            ErrorRecorder.record("Decode history messages exception.", e);
+            throw new RTMException(ErrorCode.FPNN_EC_CORE_DECODING.value(), "Decode history messages exception.");
         }
-
-        return messages;
     }
 
     public void GetGroupMessage(long groupId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, GetHistoryMessageCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("getgroupmsg");
-        quest.param("gid", groupId);
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getgroupmsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyGid, groupId, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                int num = (int) answer.get("num", 0);
-                int maxid = (int) answer.get("maxid", 0);
-                List<HistoryMessasge> messages = buildHistoryMessageList(answer);
-                callback.done(num, maxid, messages);
+                GetHistoryMessageResult result;
+                try {
+                    result = decodeHistoryMessages(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+                callback.done(result.num, result.maxid, result.messages);
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1667,15 +1720,8 @@ public class RTMClient {
 
     public GetHistoryMessageResult GetGroupMessage(long groupId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("getgroupmsg");
-        quest.param("gid", groupId);
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getgroupmsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyGid, groupId, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -1684,12 +1730,7 @@ public class RTMClient {
             throw new RTMException(errorCode, message);
         }
 
-        GetHistoryMessageResult result = new GetHistoryMessageResult();
-        result.num = (int) answer.get("num", 0);
-        result.maxid = (int) answer.get("maxid", 0);
-        result.messages = buildHistoryMessageList(answer);
-
-        return result;
+        return decodeHistoryMessages(answer);
     }
 
     public GetHistoryMessageResult GetGroupMessage(long groupId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes) throws RTMException, InterruptedException {
@@ -1700,30 +1741,27 @@ public class RTMClient {
 
     public void GetRoomMessage(long roomId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, GetHistoryMessageCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("getroommsg");
-        quest.param("rid", roomId);
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getroommsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyRid, roomId, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                int num = (int) answer.get("num", 0);
-                int maxid = (int) answer.get("maxid", 0);
-                List<HistoryMessasge> messages = buildHistoryMessageList(answer);
-                callback.done(num, maxid, messages);
+                GetHistoryMessageResult result;
+                try {
+                    result = decodeHistoryMessages(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+                callback.done(result.num, result.maxid, result.messages);
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1737,15 +1775,8 @@ public class RTMClient {
 
     public GetHistoryMessageResult GetRoomMessage(long roomId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("getroommsg");
-        quest.param("rid", roomId);
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getroommsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyRid, roomId, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -1754,12 +1785,7 @@ public class RTMClient {
             throw new RTMException(errorCode, message);
         }
 
-        GetHistoryMessageResult result = new GetHistoryMessageResult();
-        result.num = (int) answer.get("num", 0);
-        result.maxid = (int) answer.get("maxid", 0);
-        result.messages = buildHistoryMessageList(answer);
-
-        return result;
+        return decodeHistoryMessages(answer);
     }
 
     public GetHistoryMessageResult GetRoomMessage(long roomId, int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes) throws RTMException, InterruptedException {
@@ -1770,29 +1796,27 @@ public class RTMClient {
 
     public void GetBroadcastMessage(int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, GetHistoryMessageCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("getbroadcastmsg");
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getbroadcastmsg", new RTMCodec.HistoryQuestEncoder(null, 0, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                int num = (int) answer.get("num", 0);
-                int maxid = (int) answer.get("maxid", 0);
-                List<HistoryMessasge> messages = buildHistoryMessageList(answer);
-                callback.done(num, maxid, messages);
+                GetHistoryMessageResult result;
+                try {
+                    result = decodeHistoryMessages(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+                callback.done(result.num, result.maxid, result.messages);
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1806,14 +1830,8 @@ public class RTMClient {
 
     public GetHistoryMessageResult GetBroadcastMessage(int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("getbroadcastmsg");
-        quest.param("num", num);
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getbroadcastmsg", new RTMCodec.HistoryQuestEncoder(null, 0, num, null,
+                descOrder, page, localMid, localId, mTypes));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -1822,12 +1840,7 @@ public class RTMClient {
             throw new RTMException(errorCode, message);
         }
 
-        GetHistoryMessageResult result = new GetHistoryMessageResult();
-        result.num = (int) answer.get("num", 0);
-        result.maxid = (int) answer.get("maxid", 0);
-        result.messages = buildHistoryMessageList(answer);
-
-        return result;
+        return decodeHistoryMessages(answer);
     }
 
     public GetHistoryMessageResult GetBroadcastMessage(int num, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes) throws RTMException, InterruptedException {
@@ -1872,71 +1885,38 @@ public class RTMClient {
         void onException(int errorCode, String message);
     }
 
-    @SuppressWarnings("unchecked")
-    private List<P2PHistoryMessasge> buildP2PHistoryMessageList(Answer answer) {
-        List<P2PHistoryMessasge> messages = new LinkedList<>();
-
-        List rawList = (List)answer.get("msgs");
-        if (rawList == null)
-            return messages;
-
-        for( int i = 0 ; i < rawList.size() ; i++) {
-            List messageUnit = (List)rawList.get(i);
-
-            P2PHistoryMessasge hm = new P2PHistoryMessasge();
-            hm.id = (long) messageUnit.get(0);
-            hm.peerUid = (long) messageUnit.get(1);
-
-            byte direction = (byte) messageUnit.get(2);
-
-            if (direction == MessageDirection.Sent.value())
-                hm.direction = MessageDirection.Sent;
-            else if (direction == MessageDirection.Received.value())
-                hm.direction = MessageDirection.Received;
-            else
-                hm.direction = MessageDirection.SentAndReceived;
-
-            hm.mType = (byte) messageUnit.get(3);
-            hm.fType = (byte) messageUnit.get(4);
-
-            hm.mid = (long) messageUnit.get(5);
-            hm.message = (String) messageUnit.get(6);
-            hm.attrs = (String) messageUnit.get(7);
-            hm.mTime = (int) messageUnit.get(8);
-
-            messages.add(hm);
+    private GetP2PHistoryMessageResult decodeP2PHistoryMessages(Answer answer) throws RTMException {
+        try {
+            return answer.decode(p2pHistoryAnswerDecoder);
+        } catch (IOException | MessagePackException e) {
+            ErrorRecorder.record("Decode P2P history messages exception.", e);
+            throw new RTMException(ErrorCode.FPNN_EC_CORE_DECODING.value(), "Decode P2P history messages exception.");
         }
-
-        return messages;
     }
 
     public void GetP2PMessage(long peerUid, int num, MessageDirection direction, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, GetP2PHistoryMessageCallback callback, int timeoutInseconds) {
 
-        Quest quest = new Quest("getp2pmsg");
-        quest.param("fromuid", peerUid);
-        quest.param("num", num);
-        quest.param("direction", direction.value());
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getp2pmsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyFromUid, peerUid, num, direction,
+                descOrder, page, localMid, localId, mTypes));
 
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                int num = (int) answer.get("num", 0);
-                int maxid = (int) answer.get("maxid", 0);
-                List<P2PHistoryMessasge> messages = buildP2PHistoryMessageList(answer);
-                callback.done(num, maxid, messages);
+                GetP2PHistoryMessageResult result;
+                try {
+                    result = decodeP2PHistoryMessages(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+                callback.done(result.num, result.maxid, result.messages);
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -1950,16 +1930,8 @@ public class RTMClient {
 
     public GetP2PHistoryMessageResult GetP2PMessage(long peerUid, int num, MessageDirection direction, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes, int timeoutInseconds) throws RTMException, InterruptedException {
 
-        Quest quest = new Quest("getp2pmsg");
-        quest.param("fromuid", peerUid);
-        quest.param("num", num);
-        quest.param("direction", direction.value());
-        quest.param("desc", descOrder);
-        quest.param("page", page);
-        quest.param("localmid", localMid);
-        quest.param("localid", localId);
-        if (mTypes != null)
-            quest.param("mtypes", mTypes);
+        Quest quest = new Quest("getp2pmsg", new RTMCodec.HistoryQuestEncoder(RTMCodec.keyFromUid, peerUid, num, direction,
+                descOrder, page, localMid, localId, mTypes));
 
         Answer answer = sendQuest(quest, timeoutInseconds);
         if (answer.isErrorAnswer()) {
@@ -1968,12 +1940,7 @@ public class RTMClient {
             throw new RTMException(errorCode, message);
         }
 
-        GetP2PHistoryMessageResult result = new GetP2PHistoryMessageResult();
-        result.num = (int) answer.get("num", 0);
-        result.maxid = (int) answer.get("maxid", 0);
-        result.messages = buildP2PHistoryMessageList(answer);
-
-        return result;
+        return decodeP2PHistoryMessages(answer);
     }
 
     public GetP2PHistoryMessageResult GetP2PMessage(long peerUid, int num, MessageDirection direction, boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes) throws RTMException, InterruptedException {
@@ -2079,17 +2046,17 @@ public class RTMClient {
         AnswerCallback internalCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
-                callback.done((String) answer.get("stext"),
-                        (String) answer.get("src"),
-                        (String) answer.get("dtext"),
-                        (String) answer.get("dst"));
+                callback.done(answer.getString("stext"),
+                        answer.getString("src"),
+                        answer.getString("dtext"),
+                        answer.getString("dst"));
             }
 
             @Override
             public void onException(Answer answer, int errorCode) {
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
                 callback.onException(errorCode, info);
             }
         };
@@ -2125,10 +2092,10 @@ public class RTMClient {
         }
 
         TranslatedResult result = new TranslatedResult();
-        result.srcMessage = (String) answer.get("stext");
-        result.srcLanguage = (String) answer.get("src");
-        result.destMessage = (String) answer.get("dtext");
-        result.destLanguage = (String) answer.get("dst");
+        result.srcMessage = answer.getString("stext");
+        result.srcLanguage = answer.getString("src");
+        result.destMessage = answer.getString("dtext");
+        result.destLanguage = answer.getString("dst");
 
         return result;
     }
@@ -2185,6 +2152,15 @@ public class RTMClient {
         return sb.toString();
     }
 
+    private RTMCodec.FileToken decodeFileToken(Answer answer) throws RTMException {
+        try {
+            return answer.decode(RTMCodec.fileTokenDecoder);
+        } catch (IOException | MessagePackException e) {
+            ErrorRecorder.record("Decode file token exception.", e);
+            throw new RTMException(ErrorCode.FPNN_EC_CORE_DECODING.value(), "Decode file token exception.");
+        }
+    }
+
     private class FileInfo {
         byte[] fileContent;
         String filename;
@@ -2209,9 +2185,7 @@ public class RTMClient {
 
     public void sendFile(long peerUid, String mType, byte[] fileContent, String filename, String filenameExtension, DoneCallback callback, int timeoutInseconds) {
 
-        Quest fileTokenQuest = new Quest("filetoken");
-        fileTokenQuest.param("cmd", "sendfile");
-        fileTokenQuest.param("to", peerUid);
+        Quest fileTokenQuest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendfile", RTMCodec.keyTo, peerUid));
 
         long adjustedTimeout = System.currentTimeMillis();
 
@@ -2222,7 +2196,7 @@ public class RTMClient {
 
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 String message = "Prepare sending P2P file failed. Cannot get file token. Message: " + info;
 
@@ -2232,8 +2206,16 @@ public class RTMClient {
             @Override
             public void onAnswer(Answer answer) {
 
-                String token = (String) answer.get("token");
-                String endpoint = (String) answer.get("endpoint");
+                RTMCodec.FileToken fileToken;
+                try {
+                    fileToken = decodeFileToken(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+
+                String token = fileToken.token;
+                String endpoint = fileToken.endpoint;
 
                 String attrs;
                 try {
@@ -2300,9 +2282,7 @@ public class RTMClient {
 
         //-- get file token
         {
-            Quest quest = new Quest("filetoken");
-            quest.param("cmd", "sendfile");
-            quest.param("to", peerUid);
+            Quest quest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendfile", RTMCodec.keyTo, peerUid));
 
             Answer answer = sendQuest(quest, timeoutInseconds);
             if (answer.isErrorAnswer()) {
@@ -2311,8 +2291,9 @@ public class RTMClient {
                 throw new RTMException(errorCode, message);
             }
 
-            token = (String) answer.get("token");
-            endpoint = (String) answer.get("endpoint");
+            RTMCodec.FileToken fileToken = decodeFileToken(answer);
+            token = fileToken.token;
+            endpoint = fileToken.endpoint;
         }
 
         String attrs = buildFileAttrs(token, fileContent, filename, filenameExtension);
@@ -2374,9 +2355,7 @@ public class RTMClient {
 
     public void sendFiles(Set<Long> uids, String mType, byte[] fileContent, String filename, String filenameExtension, DoneCallback callback, int timeoutInseconds) {
 
-        Quest fileTokenQuest = new Quest("filetoken");
-        fileTokenQuest.param("cmd", "sendfiles");
-        fileTokenQuest.param("tos", uids);
+        Quest fileTokenQuest = new Quest("filetoken", new RTMCodec.FilesTokenEncoder("sendfiles", uids));
 
         long adjustedTimeout = System.currentTimeMillis();
 
@@ -2387,7 +2366,7 @@ public class RTMClient {
 
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 String message = "Prepare sending file to multi-peers failed. Cannot get file token. Message: " + info;
 
@@ -2397,8 +2376,16 @@ public class RTMClient {
             @Override
             public void onAnswer(Answer answer) {
 
-                String token = (String) answer.get("token");
-                String endpoint = (String) answer.get("endpoint");
+                RTMCodec.FileToken fileToken;
+                try {
+                    fileToken = decodeFileToken(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+
+                String token = fileToken.token;
+                String endpoint = fileToken.endpoint;
 
                 String attrs;
                 try {
@@ -2465,9 +2452,7 @@ public class RTMClient {
 
         //-- get file token
         {
-            Quest quest = new Quest("filetoken");
-            quest.param("cmd", "sendfiles");
-            quest.param("tos", uids);
+            Quest quest = new Quest("filetoken", new RTMCodec.FilesTokenEncoder("sendfiles", uids));
 
             Answer answer = sendQuest(quest, timeoutInseconds);
             if (answer.isErrorAnswer()) {
@@ -2476,8 +2461,9 @@ public class RTMClient {
                 throw new RTMException(errorCode, message);
             }
 
-            token = (String) answer.get("token");
-            endpoint = (String) answer.get("endpoint");
+            RTMCodec.FileToken fileToken = decodeFileToken(answer);
+            token = fileToken.token;
+            endpoint = fileToken.endpoint;
         }
 
         String attrs = buildFileAttrs(token, fileContent, filename, filenameExtension);
@@ -2539,9 +2525,7 @@ public class RTMClient {
 
     public void sendGroupFile(long groupId, String mType, byte[] fileContent, String filename, String filenameExtension, DoneCallback callback, int timeoutInseconds) {
 
-        Quest fileTokenQuest = new Quest("filetoken");
-        fileTokenQuest.param("cmd", "sendgroupfile");
-        fileTokenQuest.param("gid", groupId);
+        Quest fileTokenQuest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendgroupfile", RTMCodec.keyGid, groupId));
 
         long adjustedTimeout = System.currentTimeMillis();
 
@@ -2552,7 +2536,7 @@ public class RTMClient {
 
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 String message = "Prepare sending group file failed. Cannot get file token. Message: " + info;
 
@@ -2562,8 +2546,16 @@ public class RTMClient {
             @Override
             public void onAnswer(Answer answer) {
 
-                String token = (String) answer.get("token");
-                String endpoint = (String) answer.get("endpoint");
+                RTMCodec.FileToken fileToken;
+                try {
+                    fileToken = decodeFileToken(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+
+                String token = fileToken.token;
+                String endpoint = fileToken.endpoint;
 
                 String attrs;
                 try {
@@ -2630,9 +2622,7 @@ public class RTMClient {
 
         //-- get file token
         {
-            Quest quest = new Quest("filetoken");
-            quest.param("cmd", "sendgroupfile");
-            quest.param("gid", groupId);
+            Quest quest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendgroupfile", RTMCodec.keyGid, groupId));
 
             Answer answer = sendQuest(quest, timeoutInseconds);
             if (answer.isErrorAnswer()) {
@@ -2641,8 +2631,9 @@ public class RTMClient {
                 throw new RTMException(errorCode, message);
             }
 
-            token = (String) answer.get("token");
-            endpoint = (String) answer.get("endpoint");
+            RTMCodec.FileToken fileToken = decodeFileToken(answer);
+            token = fileToken.token;
+            endpoint = fileToken.endpoint;
         }
 
         String attrs = buildFileAttrs(token, fileContent, filename, filenameExtension);
@@ -2704,9 +2695,7 @@ public class RTMClient {
 
     public void sendRoomFile(long roomId, String mType, byte[] fileContent, String filename, String filenameExtension, DoneCallback callback, int timeoutInseconds) {
 
-        Quest fileTokenQuest = new Quest("filetoken");
-        fileTokenQuest.param("cmd", "sendroomfile");
-        fileTokenQuest.param("rid", roomId);
+        Quest fileTokenQuest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendroomfile", RTMCodec.keyRid, roomId));
 
         long adjustedTimeout = System.currentTimeMillis();
 
@@ -2717,7 +2706,7 @@ public class RTMClient {
 
                 String info = null;
                 if (answer != null)
-                    info = (String) answer.get("ex");
+                    info = answer.getString("ex");
 
                 String message = "Prepare sending room file failed. Cannot get file token. Message: " + info;
 
@@ -2727,8 +2716,16 @@ public class RTMClient {
             @Override
             public void onAnswer(Answer answer) {
 
-                String token = (String) answer.get("token");
-                String endpoint = (String) answer.get("endpoint");
+                RTMCodec.FileToken fileToken;
+                try {
+                    fileToken = decodeFileToken(answer);
+                } catch (RTMException e) {
+                    callback.onException(e.getCode(), e.getMessage());
+                    return;
+                }
+
+                String token = fileToken.token;
+                String endpoint = fileToken.endpoint;
 
                 String attrs;
                 try {
@@ -2796,9 +2793,7 @@ public class RTMClient {
 
         //-- get file token
         {
-            Quest quest = new Quest("filetoken");
-            quest.param("cmd", "sendroomfile");
-            quest.param("rid", roomId);
+            Quest quest = new Quest("filetoken", new RTMCodec.FileTokenEncoder("sendroomfile", RTMCodec.keyRid, roomId));
 
             Answer answer = sendQuest(quest, timeoutInseconds);
             if (answer.isErrorAnswer()) {
@@ -2807,8 +2802,9 @@ public class RTMClient {
                 throw new RTMException(errorCode, message);
             }
 
-            token = (String) answer.get("token");
-            endpoint = (String) answer.get("endpoint");
+            RTMCodec.FileToken fileToken = decodeFileToken(answer);
+            token = fileToken.token;
+            endpoint = fileToken.endpoint;
         }
 
         String attrs = buildFileAttrs(token, fileContent, filename, filenameExtension);
@@ -0,0 +1,493 @@
+package com.fpnn.rtm;
+
+import com.fpnn.sdk.proto.PayloadDecoder;
+import com.fpnn.sdk.proto.PayloadEncoder;
+import org.msgpack.core.MessageFormatException;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Typed codecs of the RTM hot paths, replacing Map payloads: one encoder per quest schema,
+ * and one decoder per answer & server push schema. Keys are pre-encoded, encoders write fields
+ * with MessagePacker, and decoders read straight into result objects with MessageUnpacker.
+ *
+ * GENERATED by codegen/src/com/fpnn/codegen/RTMCodecGenerator.java from codegen/rtm-codec.schema.
+ * Don't edit: change the schema and run the generator.
+ */
+
+class RTMCodec {
+
+    //-----------------[ Pre-encoded Keys ]-------------------
+
+    static final byte[] keyTo = RTMCodecSupport.key("to");
+    static final byte[] keyTos = RTMCodecSupport.key("tos");
+    static final byte[] keyGid = RTMCodecSupport.key("gid");
+    static final byte[] keyRid = RTMCodecSupport.key("rid");
+    static final byte[] keyFromUid = RTMCodecSupport.key("fromuid");
+    private static final byte[] keyMid = RTMCodecSupport.key("mid");
+    private static final byte[] keyMtype = RTMCodecSupport.key("mtype");
+    private static final byte[] keyMsg = RTMCodecSupport.key("msg");
+    private static final byte[] keyAttrs = RTMCodecSupport.key("attrs");
+    private static final byte[] keyNum = RTMCodecSupport.key("num");
+    private static final byte[] keyDirection = RTMCodecSupport.key("direction");
+    private static final byte[] keyDesc = RTMCodecSupport.key("desc");
+    private static final byte[] keyPage = RTMCodecSupport.key("page");
+    private static final byte[] keyLocalmid = RTMCodecSupport.key("localmid");
+    private static final byte[] keyLocalid = RTMCodecSupport.key("localid");
+    private static final byte[] keyMtypes = RTMCodecSupport.key("mtypes");
+    private static final byte[] keyCmd = RTMCodecSupport.key("cmd");
+
+    //=============================[ Quest Encoders ]==============================//
+
+    //-- sendmsg, sendgroupmsg, sendroommsg: {to|gid|rid, mid, mtype, msg, attrs}
+    static class SendMessageEncoder implements PayloadEncoder {
+        private final byte[] targetKey;
+        private final long target;
+        private final long mid;
+        private final byte mType;
+        private final String message;
+        private final String attrs;
+
+        SendMessageEncoder(byte[] targetKey, long target, long mid, byte mType, String message, String attrs) {
+            this.targetKey = targetKey;
+            this.target = target;
+            this.mid = mid;
+            this.mType = mType;
+            this.message = message;
+            this.attrs = attrs;
+        }
+
+        @Override
+        public void pack(MessagePacker packer) throws IOException {
+            packer.packMapHeader(5);
+            packer.writePayload(targetKey);
+            packer.packLong(target);
+            packer.writePayload(keyMid);
+            packer.packLong(mid);
+            packer.writePayload(keyMtype);
+            packer.packInt(mType);
+            packer.writePayload(keyMsg);
+            RTMCodecSupport.packString(packer, message);
+            packer.writePayload(keyAttrs);
+            RTMCodecSupport.packString(packer, attrs);
+        }
+    }
+
+    //-- sendmsgs: {tos, mid, mtype, msg, attrs}
+    static class SendMessagesEncoder implements PayloadEncoder {
+        private final Set<Long> uids;
+        private final long mid;
+        private final byte mType;
+        private final String message;
+        private final String attrs;
+
+        SendMessagesEncoder(Set<Long> uids, long mid, byte mType, String message, String attrs) {
+            this.uids = uids;
+            this.mid = mid;
+            this.mType = mType;
+            this.message = message;
+            this.attrs = attrs;
+        }
+
+        @Override
+        public void pack(MessagePacker packer) throws IOException {
+            packer.packMapHeader(5);
+            packer.writePayload(keyTos);
+            RTMCodecSupport.packUids(packer, uids);
+            packer.writePayload(keyMid);
+            packer.packLong(mid);
+            packer.writePayload(keyMtype);
+            packer.packInt(mType);
+            packer.writePayload(keyMsg);
+            RTMCodecSupport.packString(packer, message);
+            packer.writePayload(keyAttrs);
+            RTMCodecSupport.packString(packer, attrs);
+        }
+    }
+
+    /*
+        getgroupmsg: {gid, num, desc, page, localmid, localid, [mtypes]}
+        getroommsg: {rid, ...}, getbroadcastmsg: {num, ...}
+        getp2pmsg: {fromuid, num, direction, desc, page, localmid, localid, [mtypes]}
+    */
+    static class HistoryQuestEncoder implements PayloadEncoder {
+        private final byte[] targetKey;         //-- null: no target.
+        private final long target;              //-- No key for getbroadcastmsg.
+        private final int num;
+        private final RTMClient.MessageDirection direction; //-- getp2pmsg only.
+        private final boolean descOrder;
+        private final int page;
+        private final long localMid;
+        private final long localId;
+        private final Set<Byte> mTypes;
+
+        HistoryQuestEncoder(byte[] targetKey, long target, int num, RTMClient.MessageDirection direction,
+                boolean descOrder, int page, long localMid, long localId, Set<Byte> mTypes) {
+            this.targetKey = targetKey;
+            this.target = target;
+            this.num = num;
+            this.direction = direction;
+            this.descOrder = descOrder;
+            this.page = page;
+            this.localMid = localMid;
+            this.localId = localId;
+            this.mTypes = mTypes;
+        }
+
+        @Override
+        public void pack(MessagePacker packer) throws IOException {
+            int size = 5;
+            if (targetKey != null)
+                size += 1;
+            if (direction != null)
+                size += 1;
+            if (mTypes != null)
+                size += 1;
+
+            packer.packMapHeader(size);
+            if (targetKey != null) {
+                packer.writePayload(targetKey);
+                packer.packLong(target);
+            }
+            packer.writePayload(keyNum);
+            packer.packInt(num);
+            if (direction != null) {
+                packer.writePayload(keyDirection);
+                packer.packInt(direction.value());
+            }
+            packer.writePayload(keyDesc);
+            packer.packBoolean(descOrder);
+            packer.writePayload(keyPage);
+            packer.packInt(page);
+            packer.writePayload(keyLocalmid);
+            packer.packLong(localMid);
+            packer.writePayload(keyLocalid);
+            packer.packLong(localId);
+            if (mTypes != null) {
+                packer.writePayload(keyMtypes);
+                RTMCodecSupport.packMTypes(packer, mTypes);
+            }
+        }
+    }
+
+    //-- filetoken: {cmd, to|gid|rid}
+    static class FileTokenEncoder implements PayloadEncoder {
+        private final String cmd;
+        private final byte[] targetKey;
+        private final long target;
+
+        FileTokenEncoder(String cmd, byte[] targetKey, long target) {
+            this.cmd = cmd;
+            this.targetKey = targetKey;
+            this.target = target;
+        }
+
+        @Override
+        public void pack(MessagePacker packer) throws IOException {
+            packer.packMapHeader(2);
+            packer.writePayload(keyCmd);
+            RTMCodecSupport.packString(packer, cmd);
+            packer.writePayload(targetKey);
+            packer.packLong(target);
+        }
+    }
+
+    //-- filetoken for sendfiles: {cmd, tos}
+    static class FilesTokenEncoder implements PayloadEncoder {
+        private final String cmd;
+        private final Set<Long> uids;
+
+        FilesTokenEncoder(String cmd, Set<Long> uids) {
+            this.cmd = cmd;
+            this.uids = uids;
+        }
+
+        @Override
+        public void pack(MessagePacker packer) throws IOException {
+            packer.packMapHeader(2);
+            packer.writePayload(keyCmd);
+            RTMCodecSupport.packString(packer, cmd);
+            packer.writePayload(keyTos);
+            RTMCodecSupport.packUids(packer, uids);
+        }
+    }
+
+    //=============================[ Answer Decoders ]==============================//
+
+    //-- getgroupmsg, getroommsg, getbroadcastmsg: {num, maxid, msgs}
+    static class HistoryAnswerDecoder implements PayloadDecoder<RTMClient.GetHistoryMessageResult> {
+        private final RTMClient client;         //-- Outer instance of the result classes.
+
+        HistoryAnswerDecoder(RTMClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public RTMClient.GetHistoryMessageResult unpack(MessageUnpacker unpacker) throws IOException {
+            RTMClient.GetHistoryMessageResult result = client.new GetHistoryMessageResult();
+            result.messages = new ArrayList<>();
+
+            int count = unpacker.unpackMapHeader();
+            for (int i = 0; i < count; i++) {
+                String key = unpacker.unpackString();
+                if (unpacker.tryUnpackNil())
+                    continue;
+
+                switch (key) {
+                    case "num":
+                        result.num = unpacker.unpackInt();
+                        break;
+                    case "maxid":
+                        result.maxid = unpacker.unpackLong();
+                        break;
+                    case "msgs":
+                        result.messages = unpackHistoryMessageList(unpacker);
+                        break;
+                    default:
+                        unpacker.skipValue();
+                }
+            }
+            return result;
+        }
+
+        //-- Positional list: [id, from, mtype, ftype, mid, msg, attrs, mtime]
+        private List<RTMClient.HistoryMessasge> unpackHistoryMessageList(MessageUnpacker unpacker) throws IOException {
+            int count = unpacker.unpackArrayHeader();
+            List<RTMClient.HistoryMessasge> list = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                int columns = unpacker.unpackArrayHeader();
+                if (columns < 8)
+                    throw new MessageFormatException("HistoryMessage has " + columns + " fields, less than 8");
+
+                RTMClient.HistoryMessasge item = client.new HistoryMessasge();
+                item.id = unpacker.unpackLong();
+                item.fromUid = unpacker.unpackLong();
+                item.mType = (byte) unpacker.unpackInt();
+                item.fType = (byte) unpacker.unpackInt();
+                item.mid = unpacker.unpackLong();
+                item.message = RTMCodecSupport.unpackString(unpacker);
+                item.attrs = RTMCodecSupport.unpackString(unpacker);
+                item.mTime = unpacker.unpackInt();
+                RTMCodecSupport.skipValues(unpacker, columns - 8);
+
+                list.add(item);
+            }
+            return list;
+        }
+    }
+
+    //-- getp2pmsg: {num, maxid, msgs}
+    static class P2PHistoryAnswerDecoder implements PayloadDecoder<RTMClient.GetP2PHistoryMessageResult> {
+        private final RTMClient client;         //-- Outer instance of the result classes.
+
+        P2PHistoryAnswerDecoder(RTMClient client) {
+            this.client = client;
+        }
+
+        @Override
+        public RTMClient.GetP2PHistoryMessageResult unpack(MessageUnpacker unpacker) throws IOException {
+            RTMClient.GetP2PHistoryMessageResult result = client.new GetP2PHistoryMessageResult();
+            result.messages = new ArrayList<>();
+
+            int count = unpacker.unpackMapHeader();
+            for (int i = 0; i < count; i++) {
+                String key = unpacker.unpackString();
+                if (unpacker.tryUnpackNil())
+                    continue;
+
+                switch (key) {
+                    case "num":
+                        result.num = unpacker.unpackInt();
+                        break;
+                    case "maxid":
+                        result.maxid = unpacker.unpackLong();
+                        break;
+                    case "msgs":
+                        result.messages = unpackP2PHistoryMessageList(unpacker);
+                        break;
+                    default:
+                        unpacker.skipValue();
+                }
+            }
+            return result;
+        }
+
+        //-- Positional list: [id, peer, direction, mtype, ftype, mid, msg, attrs, mtime]
+        private List<RTMClient.P2PHistoryMessasge> unpackP2PHistoryMessageList(MessageUnpacker unpacker) throws IOException {
+            int count = unpacker.unpackArrayHeader();
+            List<RTMClient.P2PHistoryMessasge> list = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                int columns = unpacker.unpackArrayHeader();
+                if (columns < 9)
+                    throw new MessageFormatException("P2PHistoryMessage has " + columns + " fields, less than 9");
+
+                RTMClient.P2PHistoryMessasge item = client.new P2PHistoryMessasge();
+                item.id = unpacker.unpackLong();
+                item.peerUid = unpacker.unpackLong();
+                item.direction = RTMCodecSupport.direction(unpacker.unpackInt());
+                item.mType = (byte) unpacker.unpackInt();
+                item.fType = (byte) unpacker.unpackInt();
+                item.mid = unpacker.unpackLong();
+                item.message = RTMCodecSupport.unpackString(unpacker);
+                item.attrs = RTMCodecSupport.unpackString(unpacker);
+                item.mTime = unpacker.unpackInt();
+                RTMCodecSupport.skipValues(unpacker, columns - 9);
+
+                list.add(item);
+            }
+            return list;
+        }
+    }
+
+    static class FileToken {
+        String token;
+        String endpoint;
+    }
+
+    //-- filetoken: {token, endpoint}
+    static class FileTokenDecoder implements PayloadDecoder<FileToken> {
+        @Override
+        public FileToken unpack(MessageUnpacker unpacker) throws IOException {
+            FileToken result = new FileToken();
+
+            int count = unpacker.unpackMapHeader();
+            for (int i = 0; i < count; i++) {
+                String key = unpacker.unpackString();
+                if (unpacker.tryUnpackNil())
+                    continue;
+
+                switch (key) {
+                    case "token":
+                        result.token = RTMCodecSupport.unpackString(unpacker);
+                        break;
+                    case "endpoint":
+                        result.endpoint = RTMCodecSupport.unpackString(unpacker);
+                        break;
+                    default:
+                        unpacker.skipValue();
+                }
+            }
+            return result;
+        }
+    }
+
+    static final FileTokenDecoder fileTokenDecoder = new FileTokenDecoder();
+
+    //=============================[ Server Push Decoders ]==============================//
+
+    static class PushedMessage {
+        long target;                            //-- gid or rid.
+        long fromUid;
+        byte mType;
+        byte fType;
+        long mid;
+        long originalMid;                       //-- Translated messages only.
+        String message;
+        String attrs;
+    }
+
+    /*
+        pushmsg, pushgroupmsg, pushroommsg, pushbroadcastmsg: {[gid|rid], from, mtype, ftype, mid, msg, attrs}
+        transmsg, transgroupmsg, transroommsg, transbroadcastmsg: {[gid|rid], from, mid, omid, msg}
+    */
+    static class PushDecoder implements PayloadDecoder<PushedMessage> {
+        private static final int targetField = 0x1;
+        private static final int fromUidField = 0x2;
+        private static final int mTypeField = 0x4;
+        private static final int fTypeField = 0x8;
+        private static final int midField = 0x10;
+        private static final int originalMidField = 0x20;
+        private static final int messageField = 0x40;
+        private static final int attrsField = 0x80;
+
+        private final String targetKey;         //-- null: no target field.
+        private final int requiredFields;
+
+        PushDecoder(String targetKey, int requiredFields) {
+            this.targetKey = targetKey;
+            this.requiredFields = requiredFields;
+        }
+
+        @Override
+        public PushedMessage unpack(MessageUnpacker unpacker) throws IOException {
+            PushedMessage result = new PushedMessage();
+            int fields = 0;
+
+            int count = unpacker.unpackMapHeader();
+            for (int i = 0; i < count; i++) {
+                String key = unpacker.unpackString();
+                if (unpacker.tryUnpackNil())
+                    continue;
+
+                switch (key) {
+                    case "from":
+                        result.fromUid = unpacker.unpackLong();
+                        fields |= fromUidField;
+                        break;
+                    case "mtype":
+                        result.mType = (byte) unpacker.unpackInt();
+                        fields |= mTypeField;
+                        break;
+                    case "ftype":
+                        result.fType = (byte) unpacker.unpackInt();
+                        fields |= fTypeField;
+                        break;
+                    case "mid":
+                        result.mid = unpacker.unpackLong();
+                        fields |= midField;
+                        break;
+                    case "omid":
+                        result.originalMid = unpacker.unpackLong();
+                        fields |= originalMidField;
+                        break;
+                    case "msg":
+                        result.message = RTMCodecSupport.unpackString(unpacker);
+                        fields |= messageField;
+                        break;
+                    case "attrs":
+                        result.attrs = RTMCodecSupport.unpackString(unpacker);
+                        fields |= attrsField;
+                        break;
+                    default:
+                        if (key.equals(targetKey)) {
+                            result.target = unpacker.unpackLong();
+                            fields |= targetField;
+                        }
+                        else
+                            unpacker.skipValue();
+                }
+            }
+
+            if ((fields & requiredFields) != requiredFields)
+                throw new NoSuchElementException("PushedMessage misses fields. Required: 0x"
+                        + Integer.toHexString(requiredFields) + ", received: 0x" + Integer.toHexString(fields));
+
+            return result;
+        }
+    }
+
+    //-- Requires from, mtype, ftype, mid, msg, attrs
+    static final PushDecoder p2pPushDecoder = new PushDecoder(null, 0xde);
+    //-- Requires gid, from, mtype, ftype, mid, msg, attrs
+    static final PushDecoder groupPushDecoder = new PushDecoder("gid", 0xdf);
+    //-- Requires rid, from, mtype, ftype, mid, msg, attrs
+    static final PushDecoder roomPushDecoder = new PushDecoder("rid", 0xdf);
+    //-- Requires from, mtype, ftype, mid, msg, attrs
+    static final PushDecoder broadcastPushDecoder = new PushDecoder(null, 0xde);
+    //-- Requires from, mid, omid, msg
+    static final PushDecoder translatedP2PPushDecoder = new PushDecoder(null, 0x72);
+    //-- Requires gid, from, mid, omid, msg
+    static final PushDecoder translatedGroupPushDecoder = new PushDecoder("gid", 0x73);
+    //-- Requires rid, from, mid, omid, msg
+    static final PushDecoder translatedRoomPushDecoder = new PushDecoder("rid", 0x73);
+    //-- Requires from, mid, omid, msg
+    static final PushDecoder translatedBroadcastPushDecoder = new PushDecoder(null, 0x72);
+}
@@ -0,0 +1,69 @@
+package com.fpnn.rtm;
+
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+/**
+ * Packing & unpacking helpers called by the generated RTMCodec.
+ */
+
+class RTMCodecSupport {
+
+    //-- RTM keys are short ASCII names, i.e. msgpack fixstr.
+    static byte[] key(String name) {
+        byte[] ascii = name.getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = new byte[ascii.length + 1];
+        encoded[0] = (byte) (0xa0 | ascii.length);
+        System.arraycopy(ascii, 0, encoded, 1, ascii.length);
+        return encoded;
+    }
+
+    static void packString(MessagePacker packer, String value) throws IOException {
+        if (value != null)
+            packer.packString(value);
+        else
+            packer.packNil();
+    }
+
+    static void packUids(MessagePacker packer, Set<Long> uids) throws IOException {
+        packer.packArrayHeader(uids.size());
+        for (long uid : uids)
+            packer.packLong(uid);
+    }
+
+    static void packMTypes(MessagePacker packer, Set<Byte> mTypes) throws IOException {
+        packer.packArrayHeader(mTypes.size());
+        for (byte mType : mTypes)
+            packer.packInt(mType);
+    }
+
+    //-- Binary values are decoded as UTF-8. Nil is null.
+    static String unpackString(MessageUnpacker unpacker) throws IOException {
+        if (unpacker.tryUnpackNil())
+            return null;
+
+        if (unpacker.getNextFormat().getValueType() == ValueType.BINARY)
+            return new String(unpacker.readPayload(unpacker.unpackBinaryHeader()), StandardCharsets.UTF_8);
+
+        return unpacker.unpackString();
+    }
+
+    static void skipValues(MessageUnpacker unpacker, int count) throws IOException {
+        for (int i = 0; i < count; i++)
+            unpacker.skipValue();
+    }
+
+    static RTMClient.MessageDirection direction(int value) {
+        if (value == RTMClient.MessageDirection.Sent.value())
+            return RTMClient.MessageDirection.Sent;
+        else if (value == RTMClient.MessageDirection.Received.value())
+            return RTMClient.MessageDirection.Received;
+        else
+            return RTMClient.MessageDirection.SentAndReceived;
+    }
+}
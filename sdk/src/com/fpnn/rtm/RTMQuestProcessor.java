@@ -4,7 +4,9 @@ import com.fpnn.sdk.ErrorRecorder;
 import com.fpnn.sdk.TCPClient;
 import com.fpnn.sdk.proto.Answer;
 import com.fpnn.sdk.proto.Quest;
+import org.msgpack.core.MessagePackException;
 
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.NoSuchElementException;
 import java.util.Set;
@@ -27,7 +29,7 @@ class RTMQuestProcessor {
 
     public Answer kickoutroom(Quest quest, InetSocketAddress peerAddress) {
         try {
-            long roomId = (long)quest.want("rid");
+            long roomId = quest.wantLong("rid");
             processor.roomKickout(roomId);
 
         } catch (NoSuchElementException | ClassCastException e) {
@@ -46,19 +48,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long fromUid = (long)quest.want("from");
-            byte mType = (byte)quest.want("mtype");
-            byte fType = (byte)quest.want("ftype");
-            long mid = (long)quest.want("mid");
-            String message = (String)quest.want("msg");
-            String attrs = (String)quest.want("attrs");
-
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterP2PMessage(fromUid, mid))
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.p2pPushDecoder);
+
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterP2PMessage(pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvP2PMessage(fromUid, mType, fType, mid, message, attrs);
+            processor.recvP2PMessage(pushed.fromUid, pushed.mType, pushed.fType, pushed.mid, pushed.message, pushed.attrs);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed P2P message exception.", e);
         }
         return null;
@@ -69,20 +66,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long groupId = (long)quest.want("gid");
-            long fromUid = (long)quest.want("from");
-            byte mType = (byte)quest.want("mtype");
-            byte fType = (byte)quest.want("ftype");
-            long mid = (long)quest.want("mid");
-            String message = (String)quest.want("msg");
-            String attrs = (String)quest.want("attrs");
-
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterGroupMessage(groupId, fromUid, mid))
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.groupPushDecoder);
+
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterGroupMessage(pushed.target, pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvGroupMessage(groupId, fromUid, mType, fType, mid, message, attrs);
+            processor.recvGroupMessage(pushed.target, pushed.fromUid, pushed.mType, pushed.fType, pushed.mid, pushed.message, pushed.attrs);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed group message exception.", e);
         }
         return null;
@@ -92,20 +83,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long roomId = (long)quest.want("rid");
-            long fromUid = (long)quest.want("from");
-            byte mType = (byte)quest.want("mtype");
-            byte fType = (byte)quest.want("ftype");
-            long mid = (long)quest.want("mid");
-            String message = (String)quest.want("msg");
-            String attrs = (String)quest.want("attrs");
-
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterRoomMessage(roomId, fromUid, mid))
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.roomPushDecoder);
+
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterRoomMessage(pushed.target, pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvRoomMessage(roomId, fromUid, mType, fType, mid, message, attrs);
+            processor.recvRoomMessage(pushed.target, pushed.fromUid, pushed.mType, pushed.fType, pushed.mid, pushed.message, pushed.attrs);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed room message exception.", e);
         }
         return null;
@@ -116,19 +101,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long fromUid = (long)quest.want("from");
-            byte mType = (byte)quest.want("mtype");
-            byte fType = (byte)quest.want("ftype");
-            long mid = (long)quest.want("mid");
-            String message = (String)quest.want("msg");
-            String attrs = (String)quest.want("attrs");
-
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterBroadcastMessage(fromUid, mid))
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.broadcastPushDecoder);
+
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterBroadcastMessage(pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvBroadcastMessage(fromUid, mType, fType, mid, message, attrs);
+            processor.recvBroadcastMessage(pushed.fromUid, pushed.mType, pushed.fType, pushed.mid, pushed.message, pushed.attrs);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed broadcast message exception.", e);
         }
         return null;
@@ -139,17 +119,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long fromUid = (long)quest.want("from");
-            long mid = (long)quest.want("mid");
-            long originalMid = (long)quest.want("omid");
-            String message = (String)quest.want("msg");
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.translatedP2PPushDecoder);
 
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterP2PMessage(fromUid, mid))
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterP2PMessage(pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvTranslatedP2PMessage(fromUid, mid, originalMid, message);
+            processor.recvTranslatedP2PMessage(pushed.fromUid, pushed.mid, pushed.originalMid, pushed.message);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed translated P2P message exception.", e);
         }
         return null;
@@ -160,18 +137,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long groupId = (long)quest.want("gid");
-            long fromUid = (long)quest.want("from");
-            long mid = (long)quest.want("mid");
-            long originalMid = (long)quest.want("omid");
-            String message = (String)quest.want("msg");
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.translatedGroupPushDecoder);
 
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterGroupMessage(groupId, fromUid, mid))
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterGroupMessage(pushed.target, pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvTranslatedGroupMessage(groupId, fromUid, mid, originalMid, message);
+            processor.recvTranslatedGroupMessage(pushed.target, pushed.fromUid, pushed.mid, pushed.originalMid, pushed.message);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed translated group message exception.", e);
         }
         return null;
@@ -182,18 +155,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long roomId = (long)quest.want("rid");
-            long fromUid = (long)quest.want("from");
-            long mid = (long)quest.want("mid");
-            long originalMid = (long)quest.want("omid");
-            String message = (String)quest.want("msg");
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.translatedRoomPushDecoder);
 
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterRoomMessage(roomId, fromUid, mid))
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterRoomMessage(pushed.target, pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvTranslatedRoomMessage(roomId, fromUid, mid, originalMid, message);
+            processor.recvTranslatedRoomMessage(pushed.target, pushed.fromUid, pushed.mid, pushed.originalMid, pushed.message);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed translated room message exception.", e);
         }
         return null;
@@ -204,17 +173,14 @@ class RTMQuestProcessor {
         rtmGated.sendAnswer(answer);
 
         try {
-            long fromUid = (long)quest.want("from");
-            long mid = (long)quest.want("mid");
-            long originalMid = (long)quest.want("omid");
-            String message = (String)quest.want("msg");
+            RTMCodec.PushedMessage pushed = quest.decode(RTMCodec.translatedBroadcastPushDecoder);
 
-            if (!RTMResourceCenter.instance().getMessageIdFilter().filterBroadcastMessage(fromUid, mid))
+            if (!RTMResourceCenter.instance().getMessageIdFilter().filterBroadcastMessage(pushed.fromUid, pushed.mid))
                 return null;
 
-            processor.recvTranslatedBroadcastMessage(fromUid, mid, originalMid, message);
+            processor.recvTranslatedBroadcastMessage(pushed.fromUid, pushed.mid, pushed.originalMid, pushed.message);
 
-        } catch (NoSuchElementException | ClassCastException e) {
+        } catch (IOException | NoSuchElementException | MessagePackException e) {
             ErrorRecorder.record("Decode server pushed translated broadcast message exception.", e);
         }
         return null;
@@ -228,7 +194,7 @@ class RTMQuestProcessor {
         try {
             Set<Long> uidOfUnreadP2PMessages = (Set<Long>)quest.want("p2p");
             Set<Long> gidOfUnreadGroupMessages = (Set<Long>)quest.want("group");
-            boolean haveUnreadBroadcastMessages = (boolean)quest.want("bc");
+            boolean haveUnreadBroadcastMessages = quest.wantBoolean("bc");
 
             processor.unreadMessageStatus(uidOfUnreadP2PMessages, gidOfUnreadGroupMessages, haveUnreadBroadcastMessages);
 
@@ -18,6 +18,13 @@ public abstract class AnswerCallback {
 
     private FunctionalAnswerCallback functionalCallback;
 
+    //-- Quest timeout wheel links. Guarded by the bucket lock in QuestTimeoutWheel, cleared when unlinked.
+    TCPConnection timeoutConnection;
+    Object timeoutBucket;
+    AnswerCallback timeoutPrev;
+    AnswerCallback timeoutNext;
+    long timeoutTick;
+
     public AnswerCallback() {
         sentMilliseconds = 0;
         answeredMilliseconds = 0;
@@ -25,6 +32,12 @@ public abstract class AnswerCallback {
         seqNum = 0;
 
         functionalCallback = null;
+
+        timeoutConnection = null;
+        timeoutBucket = null;
+        timeoutPrev = null;
+        timeoutNext = null;
+        timeoutTick = 0;
     }
 
     void setSentTime() {
@@ -35,8 +48,8 @@ public abstract class AnswerCallback {
         this.seqNum = seqNum;
     }
 
-    void setTimeout(int timeoutInSeconds) {
-        timeoutMilliseconds = System.currentTimeMillis() + timeoutInSeconds * 1000;
+    void setTimeoutMillis(long timeoutInMilliseconds) {
+        timeoutMilliseconds = System.currentTimeMillis() + timeoutInMilliseconds;
     }
 
     void setFuncationalAnswerCallback(FunctionalAnswerCallback callback) {
@@ -0,0 +1,196 @@
+package com.fpnn.sdk;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Engine-wide size-classed pool of reference counted buffers, in heap and direct variants.
+ * Size classes are powers of 2 from 512 bytes to ClientEngine.getBufferPoolMaxClassSize().
+ * Larger buffers are allocated on demand and left to GC after release.
+ */
+
+public class BufferPool {
+
+    private static final int minClassShift = 9;        //-- 512 bytes
+    private static final int maxClassShift = 30;
+
+    private static final BufferPool heapPool = new BufferPool(false);
+    private static final BufferPool directPool = new BufferPool(true);
+
+    public static BufferPool heap() {
+        return heapPool;
+    }
+
+    public static BufferPool direct() {
+        return directPool;
+    }
+
+    //-- Pool for socket I/O buffers: direct if ClientEngine direct I/O is on and the direct memory cap isn't reached.
+    public static BufferPool forIO() {
+        if (ClientEngine.isDirectIO() && directPool.outstandingBytes.get() < ClientEngine.getDirectIOMaxBytes())
+            return directPool;
+
+        return heapPool;
+    }
+
+    //-- Capacity of the buffer acquire(size) returns: the size class, or size itself if no class serves it.
+    public static int classCapacity(int size) {
+        if (size <= (1 << minClassShift))
+            return 1 << minClassShift;
+
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        if (shift > maxClassShift || (1 << shift) > ClientEngine.getBufferPoolMaxClassSize())
+            return size;
+
+        return 1 << shift;
+    }
+
+    private final boolean direct;
+    private final ConcurrentLinkedQueue<ByteBuffer>[] classes;
+    private final AtomicInteger pooledBuffers;
+    private final AtomicLong pooledBytes;
+    private final AtomicLong outstandingBytes;         //-- Capacity of acquired but not released buffers.
+
+    private final AtomicLong acquired;
+    private final AtomicLong released;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong unpooled;
+    private final AtomicLong leaks;
+
+    private final ReferenceQueue<PooledBuffer> leakQueue;
+    private final Set<PooledBuffer.LeakTracker> leakTrackers;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private BufferPool(boolean direct) {
+        this.direct = direct;
+
+        classes = new ConcurrentLinkedQueue[maxClassShift - minClassShift + 1];
+        for (int i = 0; i < classes.length; i++)
+            classes[i] = new ConcurrentLinkedQueue<>();
+
+        pooledBuffers = new AtomicInteger(0);
+        pooledBytes = new AtomicLong(0);
+        outstandingBytes = new AtomicLong(0);
+
+        acquired = new AtomicLong(0);
+        released = new AtomicLong(0);
+        hits = new AtomicLong(0);
+        misses = new AtomicLong(0);
+        unpooled = new AtomicLong(0);
+        leaks = new AtomicLong(0);
+
+        leakQueue = new ReferenceQueue<>();
+        leakTrackers = ConcurrentHashMap.newKeySet();
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    private static int classIndex(int capacity) {
+        return 31 - Integer.numberOfLeadingZeros(capacity) - minClassShift;
+    }
+
+    //-- The returned buffer is cleared, in big endian, and its capacity is at least size.
+    public PooledBuffer acquire(int size) {
+        int capacity = classCapacity(size);
+        ByteBuffer buffer = null;
+
+        if (capacity != Integer.highestOneBit(capacity) || capacity > ClientEngine.getBufferPoolMaxClassSize()) {
+            buffer = allocate(size);
+            unpooled.incrementAndGet();
+        }
+        else {
+            buffer = classes[classIndex(capacity)].poll();
+            if (buffer != null) {
+                pooledBuffers.decrementAndGet();
+                pooledBytes.addAndGet(-capacity);
+                hits.incrementAndGet();
+
+                buffer.clear();
+                buffer.order(ByteOrder.BIG_ENDIAN);
+            }
+            else {
+                buffer = allocate(capacity);
+                misses.incrementAndGet();
+            }
+        }
+
+        acquired.incrementAndGet();
+        outstandingBytes.addAndGet(buffer.capacity());
+
+        PooledBuffer pooled = new PooledBuffer(this, buffer);
+        if (ClientEngine.isBufferLeakDetection()) {
+            reportLeaks();
+
+            pooled.leakTracker = new PooledBuffer.LeakTracker(pooled, leakQueue, buffer.capacity());
+            leakTrackers.add(pooled.leakTracker);
+        }
+        return pooled;
+    }
+
+    /* Only be called by PooledBuffer.release(). */
+    void recycle(PooledBuffer pooled) {
+        released.incrementAndGet();
+
+        PooledBuffer.LeakTracker tracker = pooled.leakTracker;
+        if (tracker != null) {
+            pooled.leakTracker = null;
+            leakTrackers.remove(tracker);
+            tracker.clear();
+        }
+
+        ByteBuffer buffer = pooled.buffer();
+        int capacity = buffer.capacity();
+        outstandingBytes.addAndGet(-capacity);
+
+        if (capacity > ClientEngine.getBufferPoolMaxClassSize() || capacity != classCapacity(capacity))
+            return;
+
+        if (pooledBytes.addAndGet(capacity) > ClientEngine.getBufferPoolMaxBytes()) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        }
+
+        pooledBuffers.incrementAndGet();
+        classes[classIndex(capacity)].offer(buffer);
+    }
+
+    private void reportLeaks() {
+        Reference<? extends PooledBuffer> reference;
+        while ((reference = leakQueue.poll()) != null) {
+            PooledBuffer.LeakTracker tracker = (PooledBuffer.LeakTracker) reference;
+            if (!leakTrackers.remove(tracker))
+                continue;
+
+            leaks.incrementAndGet();
+            outstandingBytes.addAndGet(-tracker.capacity);
+            ErrorRecorder.record("Pooled buffer leaked: collected without release. Capacity: " + tracker.capacity
+                    + ". Direct: " + direct, tracker.acquiredAt);
+        }
+    }
+
+    public long outstandingBytes() {
+        return outstandingBytes.get();
+    }
+
+    public BufferPoolStatistics statistics() {
+        if (ClientEngine.isBufferLeakDetection())
+            reportLeaks();
+
+        return new BufferPoolStatistics(acquired.get(), released.get(), hits.get(), misses.get(), unpooled.get(),
+                leaks.get(), pooledBuffers.get(), pooledBytes.get());
+    }
+}
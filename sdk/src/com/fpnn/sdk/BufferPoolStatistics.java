@@ -0,0 +1,76 @@
+package com.fpnn.sdk;
+
+/**
+ * Counters of a BufferPool since engine started.
+ */
+
+public class BufferPoolStatistics {
+
+    private long acquired;
+    private long released;
+    private long hits;
+    private long misses;
+    private long unpooled;
+    private long leaks;
+    private int pooledBuffers;
+    private long pooledBytes;
+
+    BufferPoolStatistics(long acquired, long released, long hits, long misses, long unpooled, long leaks,
+                         int pooledBuffers, long pooledBytes) {
+        this.acquired = acquired;
+        this.released = released;
+        this.hits = hits;
+        this.misses = misses;
+        this.unpooled = unpooled;
+        this.leaks = leaks;
+        this.pooledBuffers = pooledBuffers;
+        this.pooledBytes = pooledBytes;
+    }
+
+    public long getAcquired() {
+        return acquired;
+    }
+
+    public long getReleased() {
+        return released;
+    }
+
+    //-- Acquires served by a recycled buffer.
+    public long getHits() {
+        return hits;
+    }
+
+    //-- Acquires which allocated a new buffer of a size class.
+    public long getMisses() {
+        return misses;
+    }
+
+    //-- Acquires larger than the biggest size class. They are allocated and left to GC.
+    public long getUnpooled() {
+        return unpooled;
+    }
+
+    //-- Buffers collected without release. Only counted when leak detection is on.
+    public long getLeaks() {
+        return leaks;
+    }
+
+    public long getOutstanding() {
+        return acquired - released - leaks;
+    }
+
+    //-- Idle buffers kept for reuse.
+    public int getPooledBuffers() {
+        return pooledBuffers;
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "acquired: " + acquired + ", released: " + released + ", hits: " + hits + ", misses: " + misses
+                + ", unpooled: " + unpooled + ", leaks: " + leaks + ", pooled: " + pooledBuffers + " (" + pooledBytes + " bytes)";
+    }
+}
@@ -0,0 +1,76 @@
+package com.fpnn.sdk;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+
+/**
+ * Byte granular AES-CFB128 for stream mode (same as OpenSSL AES_cfb128_encrypt with a running offset).
+ * JCE "AES/CFB/NoPadding" holds back partial blocks in update(), so a package ending inside a block
+ * would not be sent or decoded until more bytes came. Not thread safe.
+ */
+
+class CFBStreamCipher {
+
+    private static final int blockSize = 16;
+
+    private final Cipher blockCipher;
+    private final boolean encrypt;
+    private final byte[] register;          //-- Feedback register: previous ciphertext block.
+    private final byte[] keyStream;
+    private int offset;                     //-- Used bytes of keyStream. blockSize means exhausted.
+
+    CFBStreamCipher(byte[] key, byte[] iv, boolean encrypt) throws GeneralSecurityException {
+        blockCipher = Cipher.getInstance("AES/ECB/NoPadding");
+        blockCipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"));
+
+        this.encrypt = encrypt;
+        register = iv.clone();
+        keyStream = new byte[blockSize];
+        offset = blockSize;
+    }
+
+    private void nextKeyStream() throws ShortBufferException {
+        blockCipher.update(register, 0, blockSize, keyStream, 0);
+        offset = 0;
+    }
+
+    private byte process(byte input) throws ShortBufferException {
+        if (offset == blockSize)
+            nextKeyStream();
+
+        byte output = (byte) (input ^ keyStream[offset]);
+        register[offset] = encrypt ? output : input;
+        offset += 1;
+        return output;
+    }
+
+    //-- In place. Input & output may be the same array.
+    void update(byte[] input, int inputOffset, int length, byte[] output, int outputOffset) throws ShortBufferException {
+        for (int i = 0; i < length; i++)
+            output[outputOffset + i] = process(input[inputOffset + i]);
+    }
+
+    //-- Consumes all remaining bytes of input. Output MUST have enough space. Both may share memory.
+    void update(ByteBuffer input, ByteBuffer output) throws ShortBufferException {
+        int length = input.remaining();
+        if (output.remaining() < length)
+            throw new ShortBufferException("Need " + length + " bytes, but only " + output.remaining() + " bytes left.");
+
+        if (input.hasArray() && output.hasArray()) {
+            update(input.array(), input.arrayOffset() + input.position(), length,
+                    output.array(), output.arrayOffset() + output.position());
+        }
+        else {
+            int inPos = input.position();
+            int outPos = output.position();
+            for (int i = 0; i < length; i++)
+                output.put(outPos + i, process(input.get(inPos + i)));
+        }
+
+        input.position(input.position() + length);
+        output.position(output.position() + length);
+    }
+}
@@ -1,6 +1,7 @@
 package com.fpnn.sdk;
 
-import java.nio.channels.SocketChannel;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -11,13 +12,42 @@ import java.util.concurrent.ThreadFactory;
 
 public class ClientEngine {
 
-    private static ClientEngineCore engineCore = new ClientEngineCore();
+    public enum TaskExecutorMode {
+        FixedThreadPool,
+        VirtualThreadPerTask        //-- Requires Java 21+. Falls back to FixedThreadPool on older runtimes.
+    }
+
+    private static volatile ClientEngineCore[] engineCores = null;
+    private static int reactorCount = Runtime.getRuntime().availableProcessors();
+    private static ReactorPlacementPolicy placementPolicy = new ReactorPlacementPolicy.RoundRobin();
+    private static QuestTimeoutWheel timeoutWheel = null;
+    private static int timeoutWheelTickMilliseconds = 10;
     private static boolean stopFuncCalled = false;
     private static boolean autoStop = true;
     private static int questTimeout = 5;
     private static int maxThreadInTaskPool = 4;
     private static int maxPackageLength = 1024 * 1024 * 10;     //-- 10 MB
+    private static int receiveBufferSize = 16 * 1024;           //-- 16 KB
+    private static int maxReceiveBufferSize = 256 * 1024;       //-- 256 KB
+    private static int receiveBufferIdleMilliseconds = 10 * 1000;
+    private static int bufferPoolMaxClassSize = 1024 * 1024;    //-- 1 MB
+    private static long bufferPoolMaxBytes = 64L * 1024 * 1024;  //-- 64 MB for each of heap & direct pools
+    private static volatile boolean bufferLeakDetection = false;
+    private static boolean directIO = false;
+    private static boolean decodePipeline = false;
+    private static boolean lazyPayload = false;
+    private static int inlineDecodeMaxBytes = 16 * 1024;       //-- 16 KB
+    private static long directIOMaxBytes = 128L * 1024 * 1024;  //-- 128 MB
+    private static int maxGatheringWriteBuffers = 64;
+    private static int maxGatheringWriteBytes = 256 * 1024;     //-- 256 KB
+    private static boolean directEncryptBuffer = false;
+    private static int readBudgetBytes = 256 * 1024;            //-- 256 KB
+    private static int readBudgetPackages = 0;
+    private static int writeBudgetBytes = 256 * 1024;           //-- 256 KB
+    private static int ephemeralKeyPoolSize = 16;
+    private static TaskExecutorMode taskExecutorMode = TaskExecutorMode.FixedThreadPool;
     private static ExecutorService threadPool = null;
+    private static boolean userThreadPool = false;
 
     public static boolean isAutoStop() {
         return autoStop;
@@ -35,6 +65,18 @@ public class ClientEngine {
         questTimeout = timeout;
     }
 
+    public static int getTimeoutWheelTickMilliseconds() {
+        return timeoutWheelTickMilliseconds;
+    }
+
+    //-- Only effective before engine started.
+    public static void setTimeoutWheelTickMilliseconds(int milliseconds) {
+        if (milliseconds < 1)
+            milliseconds = 1;
+
+        timeoutWheelTickMilliseconds = milliseconds;
+    }
+
     public static int getMaxThreadInTaskPool() {
         return maxThreadInTaskPool;
     }
@@ -51,24 +93,324 @@ public class ClientEngine {
         maxPackageLength = length;
     }
 
+    public static int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    //-- Initial size of the per-connection receive buffer. It grows for larger packages.
+    //-- Only effective for connections created after this call.
+    public static void setReceiveBufferSize(int bytes) {
+        if (bytes < 64)
+            bytes = 64;
+
+        receiveBufferSize = bytes;
+    }
+
+    public static int getMaxReceiveBufferSize() {
+        return maxReceiveBufferSize;
+    }
+
+    //-- Upper bound of adaptive growth. A single larger package still gets a buffer of its own size.
+    public static void setMaxReceiveBufferSize(int bytes) {
+        maxReceiveBufferSize = bytes;
+    }
+
+    public static int getReceiveBufferIdleMilliseconds() {
+        return receiveBufferIdleMilliseconds;
+    }
+
+    //-- Connections without inbound data for this long return their receive buffers to the shared pool.
+    //-- 0 disables releasing. Only effective before engine started.
+    public static void setReceiveBufferIdleMilliseconds(int milliseconds) {
+        receiveBufferIdleMilliseconds = (milliseconds > 0) ? milliseconds : 0;
+    }
+
+    public static int getBufferPoolMaxClassSize() {
+        return bufferPoolMaxClassSize;
+    }
+
+    //-- Buffers larger than this are not pooled. Should be a power of 2.
+    public static void setBufferPoolMaxClassSize(int bytes) {
+        bufferPoolMaxClassSize = bytes;
+    }
+
+    public static long getBufferPoolMaxBytes() {
+        return bufferPoolMaxBytes;
+    }
+
+    //-- Max bytes of idle buffers kept by each of BufferPool.heap() & BufferPool.direct().
+    public static void setBufferPoolMaxBytes(long bytes) {
+        bufferPoolMaxBytes = (bytes > 0) ? bytes : 0;
+    }
+
+    public static boolean isDirectIO() {
+        return directIO;
+    }
+
+    //-- Read & write sockets through direct buffers from BufferPool.direct(), and decode from them in place.
+    //-- Saves the copy JDK makes through its temporary direct buffer for each heap buffer I/O.
+    //-- Only effective for buffers acquired after this call.
+    public static void setDirectIO(boolean enable) {
+        directIO = enable;
+    }
+
+    public static long getDirectIOMaxBytes() {
+        return directIOMaxBytes;
+    }
+
+    //-- When direct buffers in use reach this cap, I/O buffers fall back to heap.
+    public static void setDirectIOMaxBytes(long bytes) {
+        directIOMaxBytes = (bytes > 0) ? bytes : 0;
+    }
+
+    public static boolean isDecodePipeline() {
+        return decodePipeline;
+    }
+
+    //-- Decode received packages on the task thread pool instead of the selector thread, in arrival order
+    //-- for each connection. A large package then doesn't stall I/O of other connections.
+    //-- Only effective for connections created after this call.
+    public static void setDecodePipeline(boolean enable) {
+        decodePipeline = enable;
+    }
+
+    public static boolean isLazyPayload() {
+        return lazyPayload;
+    }
+
+    //-- Keep received answer & quest payloads as raw msgpack bytes. Values are decoded when accessed,
+    //-- and the typed accessors of Message (getLong(), getString(), ...) decode them without boxing.
+    public static void setLazyPayload(boolean enable) {
+        lazyPayload = enable;
+    }
+
+    public static int getInlineDecodeMaxBytes() {
+        return inlineDecodeMaxBytes;
+    }
+
+    //-- In pipeline mode, packages with payload not larger than this are still decoded by the selector thread
+    //-- when nothing of the connection is queued in the pipeline.
+    public static void setInlineDecodeMaxBytes(int bytes) {
+        inlineDecodeMaxBytes = (bytes > 0) ? bytes : 0;
+    }
+
+    public static boolean isBufferLeakDetection() {
+        return bufferLeakDetection;
+    }
+
+    //-- Debug only: track each pooled buffer, and record the acquiring stack of buffers collected without release.
+    public static void setBufferLeakDetection(boolean enable) {
+        bufferLeakDetection = enable;
+    }
+
+    public static int getMaxGatheringWriteBuffers() {
+        return maxGatheringWriteBuffers;
+    }
+
+    //-- Only effective for connections created after this call.
+    public static void setMaxGatheringWriteBuffers(int count) {
+        if (count < 1)
+            count = 1;
+
+        maxGatheringWriteBuffers = count;
+    }
+
+    public static int getMaxGatheringWriteBytes() {
+        return maxGatheringWriteBytes;
+    }
+
+    //-- A single package larger than this limit is still sent, but alone.
+    public static void setMaxGatheringWriteBytes(int bytes) {
+        if (bytes < 1)
+            bytes = 1;
+
+        maxGatheringWriteBytes = bytes;
+    }
+
+    public static int getReadBudgetBytes() {
+        return readBudgetBytes;
+    }
+
+    //-- Max bytes read from one connection in each selector loop. A connection reaching the budget is served
+    //-- again in the next loop without waiting for select(), after the other ready connections. 0 means unlimited.
+    public static void setReadBudgetBytes(int bytes) {
+        readBudgetBytes = (bytes > 0) ? bytes : 0;
+    }
+
+    public static int getReadBudgetPackages() {
+        return readBudgetPackages;
+    }
+
+    //-- Max packages received from one connection in each selector loop. 0 means unlimited.
+    public static void setReadBudgetPackages(int count) {
+        readBudgetPackages = (count > 0) ? count : 0;
+    }
+
+    public static int getWriteBudgetBytes() {
+        return writeBudgetBytes;
+    }
+
+    //-- Max bytes written to one connection in each selector loop. 0 means unlimited.
+    public static void setWriteBudgetBytes(int bytes) {
+        writeBudgetBytes = (bytes > 0) ? bytes : 0;
+    }
+
+    public static boolean isDirectEncryptBuffer() {
+        return directEncryptBuffer;
+    }
+
+    //-- Encrypt outbound packages into direct buffers. Saves the copy NIO makes for heap buffers on write,
+    //-- but JCE ciphers work on arrays, so encrypting into direct memory costs a copy inside the cipher instead.
+    public static void setDirectEncryptBuffer(boolean direct) {
+        directEncryptBuffer = direct;
+    }
+
+    public static int getEphemeralKeyPoolSize() {
+        return ephemeralKeyPoolSize;
+    }
+
+    //-- Pre-generated ECDH key pairs kept for each curve. 0 disables pre-generation.
+    public static void setEphemeralKeyPoolSize(int size) {
+        ephemeralKeyPoolSize = (size > 0) ? size : 0;
+    }
+
+    //-- Connects which got a pre-generated key pair.
+    public static long getEphemeralKeyPoolHits() {
+        return EphemeralKeyPool.hitCount();
+    }
+
+    //-- Connects which generated the key pair themselves.
+    public static long getEphemeralKeyPoolMisses() {
+        return EphemeralKeyPool.missCount();
+    }
+
     public static ExecutorService getThreadPool() {
         return threadPool;
     }
 
-    public static void changeChannelInterestedEvent(SocketChannel channel, int ops) {
-        engineCore.changeChannelInterestedEvent(channel, ops);
+    public static TaskExecutorMode getTaskExecutorMode() {
+        return taskExecutorMode;
+    }
+
+    //-- Only effective before engine started.
+    public static void setTaskExecutorMode(TaskExecutorMode mode) {
+        taskExecutorMode = mode;
+    }
+
+    //-- Only effective before engine started. The executor will NOT be shutdown by stop().
+    public static void setThreadPool(ExecutorService executor) {
+        synchronized (ClientEngineCore.class) {
+            if (threadPool != null)
+                return;
+
+            threadPool = executor;
+            userThreadPool = (executor != null);
+        }
+    }
+
+    private static ExecutorService createFixedThreadPool() {
+        if (autoStop) {
+            return Executors.newFixedThreadPool(maxThreadInTaskPool,
+                    new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = Executors.defaultThreadFactory().newThread(r);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        else
+            return Executors.newFixedThreadPool(maxThreadInTaskPool);
+    }
+
+    private static ExecutorService createVirtualThreadPerTaskExecutor() {
+        try {
+            //-- Reflection keeps the SDK loadable on runtimes before Java 21.
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        }
+        catch (ReflectiveOperationException | RuntimeException e) {
+            ErrorRecorder.record("Virtual thread executor is unavailable. Fall back to fixed thread pool.", e);
+            return createFixedThreadPool();
+        }
+    }
+
+    private static ExecutorService createThreadPool() {
+        if (taskExecutorMode == TaskExecutorMode.VirtualThreadPerTask)
+            return createVirtualThreadPerTaskExecutor();
+        else
+            return createFixedThreadPool();
+    }
+
+    static QuestTimeoutWheel getTimeoutWheel() {
+        return timeoutWheel;
+    }
+
+    public static int getReactorCount() {
+        return reactorCount;
+    }
+
+    //-- Only effective before engine started.
+    public static void setReactorCount(int count) {
+        if (count < 1)
+            count = 1;
+
+        reactorCount = count;
+    }
+
+    public static ReactorPlacementPolicy getPlacementPolicy() {
+        return placementPolicy;
+    }
+
+    public static void setPlacementPolicy(ReactorPlacementPolicy policy) {
+        if (policy != null)
+            placementPolicy = policy;
+    }
+
+    public static int getReactorConnectionCount(int index) {
+        ClientEngineCore[] cores = engineCores;
+        if (cores == null || index < 0 || index >= cores.length)
+            return 0;
+
+        return cores[index].connectionCount();
+    }
+
+    public static void changeChannelInterestedEvent(TCPConnection connection, int ops) {
+        ClientEngineCore core = connection.getEngineCore();
+        if (core != null)
+            core.changeChannelInterestedEvent(connection, ops);
     }
 
     public static boolean newChannel(TCPConnection connection, int ops) {
-        return engineCore.newChannel(connection, ops);
+        ClientEngineCore[] cores = engineCores;
+        if (cores == null)
+            return false;
+
+        int index = 0;
+        if (cores.length > 1) {
+            InetSocketAddress peerAddress = connection.getPeerAddress();
+            index = placementPolicy.select(peerAddress, cores.length);
+            if (index < 0 || index >= cores.length) {
+                ErrorRecorder.record("Reactor placement policy returned invalid index " + index
+                        + ". Peer: " + peerAddress.toString());
+                index = 0;
+            }
+        }
+
+        ClientEngineCore core = cores[index];
+        connection.setEngineCore(core);
+        return core.newChannel(connection, ops);
     }
 
     public static void closeConnection(TCPConnection connection) {
-        engineCore.closeConnection(connection);
+        ClientEngineCore core = connection.getEngineCore();
+        if (core != null)
+            core.closeConnection(connection);
     }
 
     public static boolean started() {
-        return engineCore.isAlive();
+        ClientEngineCore[] cores = engineCores;
+        return cores != null && cores[0].isAlive();
     }
 
     public static void startEngine() {
@@ -76,23 +418,24 @@ public class ClientEngine {
         if (!started())
         {
             synchronized (ClientEngineCore.class) {
-                if (threadPool == null) {
-                    if (autoStop) {
-                        threadPool = Executors.newFixedThreadPool(maxThreadInTaskPool,
-                                new ThreadFactory() {
-                            public Thread newThread(Runnable r) {
-                                Thread t = Executors.defaultThreadFactory().newThread(r);
-                                t.setDaemon(true);
-                                return t;
-                            }
-                        });
-                    }
-                    else
-                        threadPool = Executors.newFixedThreadPool(maxThreadInTaskPool);
+                if (threadPool == null)
+                    threadPool = createThreadPool();
+
+                if (timeoutWheel == null) {
+                    timeoutWheel = new QuestTimeoutWheel(timeoutWheelTickMilliseconds);
+                    timeoutWheel.start();
                 }
 
-                if (!started())
-                    engineCore.start();
+                if (engineCores == null) {
+                    ClientEngineCore[] cores = new ClientEngineCore[reactorCount];
+                    for (int i = 0; i < reactorCount; i++)
+                        cores[i] = new ClientEngineCore(i);
+
+                    for (ClientEngineCore core : cores)
+                        core.start();
+
+                    engineCores = cores;
+                }
             }
         }
     }
@@ -111,10 +454,19 @@ public class ClientEngine {
             stopFuncCalled = true;
         }
 
-        engineCore.finish();
+        ClientEngineCore[] cores = engineCores;
+        for (ClientEngineCore core : cores)
+            core.finish();
+
         try {
-            engineCore.join();
-            threadPool.shutdown();
+            for (ClientEngineCore core : cores)
+                core.join();
+
+            timeoutWheel.finish();
+            timeoutWheel.join();
+
+            if (!userThreadPool)
+                threadPool.shutdown();
         }
         catch (InterruptedException e)
         {
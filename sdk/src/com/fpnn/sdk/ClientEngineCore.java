@@ -7,11 +7,13 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created by shiwangxing on 2017/11/28.
@@ -20,16 +22,25 @@ import java.util.Set;
 class ClientEngineCore extends Thread {
 
     private Selector selector;
-    private Map<SocketChannel, Integer> channelEvents;
-    private Map<SocketChannel, TCPConnection> connectionMap;
-    private Set<SocketChannel> closedChannels;
-    private Set<TCPConnection> userClosedTCPConnection;
+    private ConcurrentLinkedQueue<TCPConnection> interestChangedQueue;
+    private AtomicBoolean wakeupPending;
+    private Set<TCPConnection> connections;
+    private ConcurrentLinkedQueue<TCPConnection> userClosedConnections;
+    private ArrayDeque<TCPConnection> closingConnections;          //-- Only be visited in this thread.
+    private ArrayDeque<TCPConnection> carriedOverConnections;      //-- Stopped by I/O budgets. Only be visited in this thread.
 
     private volatile boolean running;
     private boolean keyCancelled;
 
+    //-- Idle receive buffers sweeping. 0: disabled.
+    private long idleReleaseNanos;
+    private long sweepIntervalMilliseconds;
+    private long nextSweepNanos;
+
+
+    public ClientEngineCore(int index) {
+        super("FPNN-ClientEngine-Reactor-" + index);
 
-    public ClientEngineCore() {
         try {
             selector = SelectorProvider.provider().openSelector();
         }
@@ -39,57 +50,85 @@ class ClientEngineCore extends Thread {
             running = false;
         }
 
-        channelEvents = new HashMap<>();        //-- Maybe change to TreeMap
-        connectionMap = new HashMap<>();        //-- Maybe change to TreeMap
-        closedChannels = new HashSet<>();
-        userClosedTCPConnection = new HashSet<>();
+        interestChangedQueue = new ConcurrentLinkedQueue<>();
+        wakeupPending = new AtomicBoolean(false);
+        connections = new HashSet<>();
+        userClosedConnections = new ConcurrentLinkedQueue<>();
+        closingConnections = new ArrayDeque<>();
+        carriedOverConnections = new ArrayDeque<>();
 
         keyCancelled = false;
+
+        idleReleaseNanos = ClientEngine.getReceiveBufferIdleMilliseconds() * 1000000L;
+        sweepIntervalMilliseconds = Math.max(ClientEngine.getReceiveBufferIdleMilliseconds() / 2, 100);
+        nextSweepNanos = System.nanoTime() + sweepIntervalMilliseconds * 1000000L;
+
         running = true;
         setDaemon(true);
     }
 
-    public void closeConnection(TCPConnection connection) {
-        synchronized (userClosedTCPConnection) {
-            userClosedTCPConnection.add(connection);
+    public int connectionCount() {
+        synchronized (connections) {
+            return connections.size();
         }
-        selector.wakeup();
     }
 
-    public void changeChannelInterestedEvent(SocketChannel channel, int ops) {
-        synchronized (channelEvents) {
-            channelEvents.put(channel, ops);
-        }
-        selector.wakeup();
+    //-- Coalesce wakeup() calls: only the first caller after the loop re-armed the flag wakes the selector.
+    private void wakeup() {
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+    }
+
+    public void closeConnection(TCPConnection connection) {
+        userClosedConnections.offer(connection);
+        wakeup();
+    }
+
+    public void changeChannelInterestedEvent(TCPConnection connection, int ops) {
+        //-- Only the first change since the last apply enqueues the connection. Later ones overwrite the pending ops.
+        if (connection.swapPendingInterestOps(ops) != TCPConnection.noPendingInterestOps)
+            return;
+
+        interestChangedQueue.offer(connection);
+
+        //-- The loop applies pending changes before next select().
+        if (Thread.currentThread() != this)
+            wakeup();
     }
 
-    private void registerChannelEvents() {
-        synchronized (channelEvents) {
-            Iterator iterator = channelEvents.entrySet().iterator();
-            while (iterator.hasNext()) {
-                Map.Entry entry = (Map.Entry) iterator.next();
-                SocketChannel channel = (SocketChannel) entry.getKey();
-                Integer ops = (Integer) entry.getValue();
+    private void applyInterestChanges() {
+        TCPConnection connection;
+        while ((connection = interestChangedQueue.poll()) != null) {
 
+            int ops = connection.swapPendingInterestOps(TCPConnection.noPendingInterestOps);
+            if (ops == TCPConnection.noPendingInterestOps)
+                continue;
+
+            SocketChannel channel = connection.getChannel();
+            SelectionKey key = connection.getSelectionKey();
+
+            try {
+                if (key == null) {
+                    if (channel.isOpen())
+                        connection.setSelectionKey(channel.register(selector, ops, connection));
+                }
+                else if (key.isValid())
+                    key.interestOps(ops);
+            }
+            catch (IOException | CancelledKeyException e)
+            {
+                String peer = "<Get server address failed>";
                 try {
-                    channel.register(selector, ops);
+                    InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+                    peer = address.getHostName() + ':' + address.getPort();
+                    channel.close();
                 }
-                catch (IOException | CancelledKeyException e)
-                {
-                    String peer = "<Get server address failed>";
-                    try {
-                        InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
-                        peer = address.getHostName() + ':' + address.getPort();
-                        channel.close();
-                    }
-                    catch (IOException e2) {
-                    }
-
-                    ErrorRecorder.record("Register channel event ops " + ops + " failed. Peer: " + peer, e);
+                catch (IOException e2) {
                 }
-            }
 
-            channelEvents.clear();
+                ErrorRecorder.record("Register channel event ops " + ops + " failed. Peer: " + peer, e);
+                closingConnections.add(connection);
+            }
         }
     }
 
@@ -97,199 +136,141 @@ class ClientEngineCore extends Thread {
         if (!running)
             return false;
 
-        synchronized (connectionMap) {
-            connectionMap.put(connection.getChannel(), connection);
+        synchronized (connections) {
+            connections.add(connection);
 
             //-- Prevent new channel created in the running flag checking gap.
             if (!running) {
-                connectionMap.remove(connection.getChannel());
+                connections.remove(connection);
                 return false;
             }
         }
 
-        changeChannelInterestedEvent(connection.getChannel(), ops);
+        changeChannelInterestedEvent(connection, ops);
         return true;
     }
 
-    private long getNextTimeoutInterval() {
-
-        Set<TCPConnection> connSet = new HashSet<>();
-
-        synchronized (connectionMap) {
-            if (connectionMap.values().size() == 0) {
-                if (keyCancelled) {
-                    keyCancelled = false;
-                    return -1;
-                }
-                return 0;
-            }
-
-            connSet.addAll(connectionMap.values());
+    private void processConnectedEvent(TCPConnection conn) {
+        boolean succeed = true;
+        SocketChannel channel = conn.getChannel();
+        try {
+            channel.finishConnect();
         }
+        catch (IOException e) {
+            succeed = false;
+            closingConnections.add(conn);
 
-        long value = 5 * 1000;
-        long current = System.currentTimeMillis();
-        for (TCPConnection connection : connSet) {
-            long nextValue = connection.getNextTimeoutMillis();
-
-            if (nextValue == 0)
-                continue;
-
-            if (nextValue > 0)
-                nextValue -= current;
-
-            if (nextValue < 0)
-                return nextValue;
-
-            if (nextValue == 0)
-                return -1;
+            String peer = "<Get server address failed>";
+            try {
+                InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
+                peer = address.getHostName() + ':' + address.getPort();
+                channel.close();
+            }
+            catch (IOException e2) {
+            }
 
-            if (nextValue < value)
-                value = nextValue;
+            ErrorRecorder.record("Finish connect action failed. Peer: " + peer, e);
         }
-
-        return value;
+        conn.processConnectedEvent(succeed);
     }
 
-    private void checkTimeoutCallbacks() {
+    private void processIOEvent(TCPConnection conn, int ops, long readyNanos) {
+        if (!conn.processIOEvent(ops, readyNanos))
+            closingConnections.add(conn);
+        else if (conn.hasCarriedOverOps())
+            carriedOverConnections.add(conn);
+    }
 
-        Set<TCPConnection> connSet = new HashSet<>();
+    private void processChannelEvents(long readyNanos) {
+        Set<SelectionKey> selectedKeys = selector.selectedKeys();
+        if (selectedKeys.isEmpty())
+            return;
 
-        synchronized (connectionMap) {
-            connSet.addAll(connectionMap.values());
-        }
+        Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+        while (keyIterator.hasNext()) {
+            SelectionKey key = keyIterator.next();
+            keyIterator.remove();
+
+            TCPConnection conn = (TCPConnection) key.attachment();
+            if (conn == null) {
+                key.cancel();
+                keyCancelled = true;
+                continue;
+            }
 
-        for (TCPConnection connection : connSet) {
-            connection.checkTimeoutCallbacks();
-        }
-    }
+            if (!key.isValid()) {
+                closingConnections.add(conn);
+                continue;
+            }
 
-    private void processConnectedEvent(Set<TCPConnection> connectedSet) {
-        for (TCPConnection conn: connectedSet) {
-            boolean succeed = true;
-            SocketChannel channel = conn.getChannel();
             try {
-                channel.finishConnect();
+                if (key.isConnectable())
+                    processConnectedEvent(conn);
+                else if (conn.hasCarriedOverOps())
+                    conn.mergeCarriedOverOps(key.readyOps());     //-- Served in its turn by processCarriedOverConnections().
+                else
+                    processIOEvent(conn, key.readyOps(), readyNanos);
             }
-            catch (IOException e) {
-                succeed = false;
-                closedChannels.add(channel);
-
-                String peer = "<Get server address failed>";
-                try {
-                    InetSocketAddress address = (InetSocketAddress) channel.getRemoteAddress();
-                    peer = address.getHostName() + ':' + address.getPort();
-                    channel.close();
-                }
-                catch (IOException e2) {
-                }
-
-                ErrorRecorder.record("Finish connect action failed. Peer: " + peer, e);
+            catch (CancelledKeyException e) {
+                closingConnections.add(conn);
             }
-            conn.processConnectedEvent(succeed);
         }
     }
 
-    private void processIOEvent(Map<TCPConnection, Integer> connMap) {
-        Iterator iterator = connMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry entry = (Map.Entry) iterator.next();
-            TCPConnection conn = (TCPConnection) entry.getKey();
-            Integer ops = (Integer) entry.getValue();
-
-            if (!conn.processIOEvent(ops)) {
-                closedChannels.add(conn.getChannel());
-            }
-        }
-    }
+    //-- Serve the first count connections stopped by budgets in previous loop. They go after the selected ones,
+    //-- so a busy connection gets one budget per loop, and quiet connections never wait for its whole backlog.
+    private void processCarriedOverConnections(int count, long readyNanos) {
+        for (int i = 0; i < count; i++) {
+            TCPConnection conn = carriedOverConnections.poll();
+            int ops = conn.takeCarriedOverOps();
 
-    private void processChannelEvents() {
-        Set<SelectionKey> selectedKeys = selector.selectedKeys();
-        Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+            SelectionKey key = conn.getSelectionKey();
+            if (key == null || !key.isValid())
+                continue;
 
-        Set<TCPConnection> connectedSet = new HashSet<>();
-        Map<TCPConnection, Integer> ioMap = new HashMap<>();
-        Set<TCPConnection> invalidConnectionedSet = new HashSet<>();
-
-        if (keyIterator.hasNext()) {
-            synchronized (connectionMap) {
-                while (keyIterator.hasNext()) {
-                    SelectionKey key = keyIterator.next();
-
-                    SocketChannel channel = (SocketChannel) key.channel();
-                    TCPConnection conn = connectionMap.get(channel);
-
-                    if (conn == null) {
-                        key.cancel();
-                        keyIterator.remove();
-                        keyCancelled = true;
-                        continue;
-                    }
-
-                    if (key.isValid()) {
-                        if (key.isConnectable()) {
-                            connectedSet.add(conn);
-                        }
-                        else {
-                            int ops = key.readyOps();
-                            ioMap.put(conn, ops);
-                        }
-                    } else {
-                        invalidConnectionedSet.add(conn);
-                    }
-
-                    keyIterator.remove();
-                }
+            try {
+                processIOEvent(conn, ops, readyNanos);
+            }
+            catch (CancelledKeyException e) {
+                closingConnections.add(conn);
             }
         }
-
-        synchronized (userClosedTCPConnection) {
-            userClosedTCPConnection.addAll(invalidConnectionedSet);
-        }
-
-        processConnectedEvent(connectedSet);
-        processIOEvent(ioMap);
     }
 
     private void processInvalidChannels() {
 
-        HashSet<SocketChannel> invalidChannels = new HashSet<>();
-        HashSet<TCPConnection> invalidConnections = new HashSet<>();
+        TCPConnection conn;
+        while ((conn = userClosedConnections.poll()) != null)
+            closingConnections.add(conn);
 
-        synchronized (userClosedTCPConnection) {
-            for (TCPConnection conn : userClosedTCPConnection) {
-                closedChannels.add(conn.getChannel());
+        while ((conn = closingConnections.poll()) != null) {
+            SelectionKey key = conn.getSelectionKey();
+            if (key != null) {
+                key.cancel();
+                keyCancelled = true;
             }
-            userClosedTCPConnection.clear();
-        }
 
-        Set<SelectionKey> keys = selector.keys();
-        synchronized (connectionMap) {
-            for (SelectionKey key: keys) {
-                SocketChannel channel = (SocketChannel) key.channel();
-                if (closedChannels.contains(channel) || !key.isValid()) {
-                    key.cancel();
-                    keyCancelled = true;
-
-                    TCPConnection conn = connectionMap.get(channel);
-                    if (conn != null)
-                        invalidConnections.add(conn);
-
-                    connectionMap.remove(channel);
-                    invalidChannels.add(channel);
-                }
+            boolean removed;
+            synchronized (connections) {
+                removed = connections.remove(conn);
             }
-        }
 
-        synchronized (channelEvents) {
-            for (SocketChannel channel : invalidChannels)
-                channelEvents.remove(channel);
+            //-- A connection may be queued more than once. Only the first one closes it.
+            if (removed)
+                conn.closedByCachedError();
         }
+    }
 
-        for (TCPConnection connection : invalidConnections)
-            connection.closedByCachedError();
+    private void releaseIdleBuffers() {
+        long now = System.nanoTime();
+        if (now - nextSweepNanos < 0)
+            return;
 
-        closedChannels.clear();
+        nextSweepNanos = now + sweepIntervalMilliseconds * 1000000L;
+        synchronized (connections) {
+            for (TCPConnection connection : connections)
+                connection.releaseIdleBuffers(now, idleReleaseNanos);
+        }
     }
 
     @Override
@@ -302,26 +283,38 @@ class ClientEngineCore extends Thread {
         }
 
         while (running) {
-            registerChannelEvents();
+            //-- MUST re-arm the wakeup flag before draining, or a change queued during the drain may be missed.
+            wakeupPending.set(false);
+            applyInterestChanges();
+            processInvalidChannels();
 
-            long milliseconds = getNextTimeoutInterval();
             try {
-                if (milliseconds == 0)
-                    selector.select();
-                else if (milliseconds > 0)
-                    selector.select(milliseconds);
-                else
+                //-- Flush cancelled keys immediately, and don't block while connections are carried over.
+                //-- Quest timeouts are driven by QuestTimeoutWheel.
+                if (keyCancelled || !carriedOverConnections.isEmpty()) {
+                    keyCancelled = false;
                     selector.selectNow();
+                }
+                else if (idleReleaseNanos > 0)
+                    selector.select(sweepIntervalMilliseconds);
+                else
+                    selector.select();
             }
             catch (IOException e)
             {
-                ErrorRecorder.record("NIO select() exception. milliseconds is " + milliseconds + ".", e);
+                ErrorRecorder.record("NIO select() exception.", e);
             }
 
             if (running) {
-                processChannelEvents();
+                long readyNanos = System.nanoTime();
+                int carriedOverCount = carriedOverConnections.size();
+
+                processChannelEvents(readyNanos);
+                processCarriedOverConnections(carriedOverCount, readyNanos);
                 processInvalidChannels();
-                checkTimeoutCallbacks();
+
+                if (idleReleaseNanos > 0)
+                    releaseIdleBuffers();
             }
         }
 
@@ -337,10 +330,14 @@ class ClientEngineCore extends Thread {
             ErrorRecorder.record("Close selector exception.", e);
         }
 
-        synchronized (connectionMap) {
-            for (TCPConnection connection : connectionMap.values()) {
-                connection.closeBySelector();
-            }
+        ArrayList<TCPConnection> remainedConnections;
+        synchronized (connections) {
+            remainedConnections = new ArrayList<>(connections);
+            connections.clear();
+        }
+
+        for (TCPConnection connection : remainedConnections) {
+            connection.closeBySelector();
         }
     }
 
@@ -0,0 +1,55 @@
+package com.fpnn.sdk;
+
+/**
+ * Fairness counters of one connection in its selector loop.
+ * Values are collected without stopping I/O, so they are approximate under traffic.
+ */
+
+public class ConnectionIOStatistics {
+
+    private long ioEvents;
+    private long readBudgetHits;
+    private long writeBudgetHits;
+    private long totalServiceDelayNanos;
+    private long maxServiceDelayNanos;
+
+    ConnectionIOStatistics(long ioEvents, long readBudgetHits, long writeBudgetHits,
+                           long totalServiceDelayNanos, long maxServiceDelayNanos) {
+        this.ioEvents = ioEvents;
+        this.readBudgetHits = readBudgetHits;
+        this.writeBudgetHits = writeBudgetHits;
+        this.totalServiceDelayNanos = totalServiceDelayNanos;
+        this.maxServiceDelayNanos = maxServiceDelayNanos;
+    }
+
+    //-- Read & write events served by the selector loop.
+    public long getIOEvents() {
+        return ioEvents;
+    }
+
+    //-- Times reading stopped at the read budget, leaving data for the next loop.
+    public long getReadBudgetHits() {
+        return readBudgetHits;
+    }
+
+    //-- Times writing stopped at the write budget, leaving data for the next loop.
+    public long getWriteBudgetHits() {
+        return writeBudgetHits;
+    }
+
+    //-- Time from select() returning to the connection being served: the wait behind other connections.
+    public long getAverageServiceDelayNanos() {
+        return (ioEvents > 0) ? totalServiceDelayNanos / ioEvents : 0;
+    }
+
+    public long getMaxServiceDelayNanos() {
+        return maxServiceDelayNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "io events: " + ioEvents + ", read budget hits: " + readBudgetHits + ", write budget hits: "
+                + writeBudgetHits + ", service delay: " + getAverageServiceDelayNanos() / 1000 + " us avg, "
+                + maxServiceDelayNanos / 1000 + " us max";
+    }
+}
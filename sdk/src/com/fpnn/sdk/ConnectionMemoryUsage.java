@@ -0,0 +1,57 @@
+package com.fpnn.sdk;
+
+/**
+ * Snapshot of the buffer memory held by one connection.
+ * Values are collected without stopping I/O, so they are approximate under traffic.
+ */
+
+public class ConnectionMemoryUsage {
+
+    private int receiveBufferBytes;
+    private long sendQueueBytes;
+    private int sendQueuePackages;
+    private int sendBufferBytes;
+    private int pendingCallbacks;
+
+    ConnectionMemoryUsage(int receiveBufferBytes, long sendQueueBytes, int sendQueuePackages,
+                          int sendBufferBytes, int pendingCallbacks) {
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.sendQueueBytes = sendQueueBytes;
+        this.sendQueuePackages = sendQueuePackages;
+        this.sendBufferBytes = sendBufferBytes;
+        this.pendingCallbacks = pendingCallbacks;
+    }
+
+    //-- Capacity of receive (and decrypt) buffers. 0 when released by an idle connection.
+    public int getReceiveBufferBytes() {
+        return receiveBufferBytes;
+    }
+
+    //-- Encoded packages waiting to be sent.
+    public long getSendQueueBytes() {
+        return sendQueueBytes;
+    }
+
+    public int getSendQueuePackages() {
+        return sendQueuePackages;
+    }
+
+    //-- Capacity of the package mode encrypt buffer.
+    public int getSendBufferBytes() {
+        return sendBufferBytes;
+    }
+
+    public int getPendingCallbacks() {
+        return pendingCallbacks;
+    }
+
+    public long getTotalBytes() {
+        return receiveBufferBytes + sendQueueBytes + sendBufferBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "receive buffer: " + receiveBufferBytes + ", send queue: " + sendQueueBytes + " (" + sendQueuePackages
+                + " packages), send buffer: " + sendBufferBytes + ", pending callbacks: " + pendingCallbacks;
+    }
+}
@@ -0,0 +1,80 @@
+package com.fpnn.sdk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Per-connection decode pipeline: the selector thread only frames bytes, and frames are decoded
+ * & dispatched in arrival order on the engine thread pool.
+ * Small frames are still decoded inline when nothing is queued, so they don't pay for the hand-off.
+ */
+
+class DecodePipeline {
+
+    private static int FPNNHeadLength = 12;
+
+    private TCPConnection connection;
+    private SerialTaskExecutor executor;
+    private int inlineDecodeMaxBytes;
+
+    DecodePipeline(TCPConnection connection) {
+        this.connection = connection;
+        executor = new SerialTaskExecutor();
+        inlineDecodeMaxBytes = ClientEngine.getInlineDecodeMaxBytes();
+    }
+
+    /* Only be called by engine core thread. */
+    boolean decodeInline(int bodyLength) {
+        return bodyLength <= inlineDecodeMaxBytes && executor.queueDepth() == 0;
+    }
+
+    /*
+        Only be called by engine core thread.
+        Header & body are views of the receive buffer, so the frame is copied into a pooled buffer.
+        Packages decoded inline before this frame are dispatched first, or this frame may overtake them.
+    */
+    void submit(PackageReceivedResult inlineResult, ByteBuffer headerBuffer, ByteBuffer bodyBuffer,
+                QuestHandlerRegistry registry) {
+
+        connection.dispatchPackages(inlineResult);
+        inlineResult.clearPackages();
+
+        final boolean lazyPayload = inlineResult.isLazyPayload();
+
+        int bodyLength = bodyBuffer.remaining();
+        final PooledBuffer frame = BufferPool.heap().acquire(FPNNHeadLength + bodyLength);
+        ByteBuffer buffer = frame.buffer();
+        buffer.clear();
+        buffer.put(headerBuffer.duplicate());
+        buffer.put(bodyBuffer.duplicate());
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    ByteBuffer view = frame.buffer().duplicate();
+                    view.position(0);
+                    view.limit(FPNNHeadLength);
+                    ByteBuffer header = view.slice();
+
+                    view.limit(FPNNHeadLength + bodyLength);
+                    view.position(FPNNHeadLength);
+                    ByteBuffer body = view.slice();
+
+                    PackageReceivedResult result = new PackageReceivedResult();
+                    result.setQuestHandlerRegistry(registry);
+                    result.setLazyPayload(lazyPayload);
+                    result.decodePackage(header, body);
+
+                    connection.dispatchPackages(result);
+                }
+                finally {
+                    frame.release();
+                }
+            }
+        });
+    }
+
+    int queueDepth() {
+        return executor.queueDepth();
+    }
+}
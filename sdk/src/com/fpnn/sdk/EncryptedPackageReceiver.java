@@ -12,25 +12,55 @@ public class EncryptedPackageReceiver implements PackageReceiverInterface {
     private static int packageModeEncryptedPackageLength = 4;
 
     private ByteBuffer lengthRecvBuffer;
-    private ByteBuffer packageRecvBuffer;
+    private PooledBuffer pooledPackageBuffer;
+    private ByteBuffer packageRecvBuffer;      //-- Reused. Packages are decoded before the next one is read.
     private int packageLength;
     private int receivedLength;
+    private volatile int heldBytes;
 
     private KeyGenerator.EncryptionKit encryptKit;
 
     public EncryptedPackageReceiver(KeyGenerator.EncryptionKit kit) {
         encryptKit = kit;
+        lengthRecvBuffer = null;
+        pooledPackageBuffer = null;
+        packageRecvBuffer = null;
+        heldBytes = 0;
         prepareLengthBuffer();
     }
 
-    private void prepareLengthBuffer() {
-        lengthRecvBuffer = ByteBuffer.allocate(packageModeEncryptedPackageLength);
+    public int heldBufferBytes() {
+        return heldBytes;
+    }
+
+    public void releaseIdleBuffers() {
+        if (packageLength != 0)
+            return;
+
+        releaseBuffers();
+    }
+
+    public void releaseBuffers() {
+        if (pooledPackageBuffer == null)
+            return;
+
+        pooledPackageBuffer.release();
+        pooledPackageBuffer = null;
         packageRecvBuffer = null;
+        heldBytes = 0;
+    }
+
+    private void prepareLengthBuffer() {
+        if (lengthRecvBuffer == null)
+            lengthRecvBuffer = ClientEngine.isDirectIO() ? ByteBuffer.allocateDirect(packageModeEncryptedPackageLength)
+                    : ByteBuffer.allocate(packageModeEncryptedPackageLength);
+
+        lengthRecvBuffer.clear();
         packageLength = 0;
         receivedLength = 0;
     }
 
-    private void preparePackageBuffer() {
+    private boolean preparePackageBuffer(PackageReceivedResult result, InetSocketAddress peerAddress) {
         lengthRecvBuffer.flip();
 
         packageLength = (lengthRecvBuffer.get(0) & 0xFF)
@@ -38,17 +68,33 @@ public class EncryptedPackageReceiver implements PackageReceiverInterface {
                 | ((lengthRecvBuffer.get(2) & 0xFF) << 16)
                 | ((lengthRecvBuffer.get(3) & 0xFF) << 24);
 
-        packageRecvBuffer = ByteBuffer.allocate(packageLength);
+        if (packageLength <= FPNNHeadLength || packageLength > ClientEngine.getMaxPackageLength() + FPNNHeadLength + 4 + 255) {
+            result.setError(ErrorCode.FPNN_EC_PROTO_INVALID_PACKAGE.value());
+            ErrorRecorder.record("Received invalid encrypted package. package length: "
+                    + packageLength + ". Connection will be closed. Channel: " + peerAddress.toString());
+            return false;
+        }
+
+        if (packageRecvBuffer == null || packageRecvBuffer.capacity() < packageLength) {
+            releaseBuffers();
+            pooledPackageBuffer = BufferPool.forIO().acquire(Math.max(packageLength, ClientEngine.getReceiveBufferSize()));
+            packageRecvBuffer = pooledPackageBuffer.buffer();
+            heldBytes = packageRecvBuffer.capacity();
+        }
+
+        packageRecvBuffer.clear();
+        packageRecvBuffer.limit(packageLength);
         receivedLength = 0;
+        return true;
     }
 
     private boolean processPackageData(PackageReceivedResult result, InetSocketAddress peerAddress) {
 
-        byte[] plaintext;
         packageRecvBuffer.flip();
 
         try {
-            plaintext = encryptKit.decryptor.doFinal(packageRecvBuffer.array());
+            //-- Decrypt in place. CFB keeps the length.
+            encryptKit.decryptor.doFinal(packageRecvBuffer.duplicate(), packageRecvBuffer.duplicate());
         } catch (GeneralSecurityException e) {
             ErrorRecorder.record("Decode received package in package mode failed. Connection will be closed. Channel: "
                     + peerAddress.toString(), e);
@@ -56,24 +102,20 @@ public class EncryptedPackageReceiver implements PackageReceiverInterface {
             return false;
         }
 
-        ByteBuffer headerBuffer = ByteBuffer.allocate(FPNNHeadLength);
-        headerBuffer.clear();
-        headerBuffer.put(plaintext, 0, FPNNHeadLength);
-        headerBuffer.flip();
+        //-- Header & body are views of the received buffer. No copy.
+        packageRecvBuffer.limit(FPNNHeadLength);
+        ByteBuffer headerBuffer = packageRecvBuffer.slice();
 
-        ByteBuffer bodyBuffer = ByteBuffer.allocate(plaintext.length - FPNNHeadLength);
-        bodyBuffer.clear();
-        bodyBuffer.put(plaintext, FPNNHeadLength, plaintext.length - FPNNHeadLength);
-        bodyBuffer.flip();
+        packageRecvBuffer.limit(packageLength);
+        packageRecvBuffer.position(FPNNHeadLength);
+        ByteBuffer bodyBuffer = packageRecvBuffer.slice();
 
         result.addPackage(headerBuffer, bodyBuffer);
 
         return true;
     }
 
-    public PackageReceivedResult receive(SocketChannel channel, InetSocketAddress peerAddress) {
-
-        PackageReceivedResult result = new PackageReceivedResult();
+    public void receive(SocketChannel channel, InetSocketAddress peerAddress, PackageReceivedResult result) {
 
         int receivedBytes;
         while (true) {
@@ -86,7 +128,7 @@ public class EncryptedPackageReceiver implements PackageReceiverInterface {
             } catch (IOException e) {
                 ErrorRecorder.record("Receive data error. Connection will be closed. Channel: " + peerAddress.toString(), e);
                 result.setError(ErrorCode.FPNN_EC_CORE_RECV_ERROR.value());
-                return result;
+                return;
             }
 
             if (receivedBytes > 0) {
@@ -95,23 +137,30 @@ public class EncryptedPackageReceiver implements PackageReceiverInterface {
 
                 if (packageLength == 0) {
                     if (receivedLength == packageModeEncryptedPackageLength) {
-                        preparePackageBuffer();
+                        if (!preparePackageBuffer(result, peerAddress))
+                            return;
                     }
 
                 } else {
                     if (receivedLength == packageLength) {
                         if (!processPackageData(result, peerAddress))
-                            return result;
+                            return;
 
+                        //-- Don't keep a buffer grown for a single large package.
                         prepareLengthBuffer();
+                        if (packageRecvBuffer.capacity() > ClientEngine.getMaxReceiveBufferSize())
+                            releaseBuffers();
                     }
                 }
 
+                if (result.consumeReadBudget(receivedBytes))
+                    return;
+
             } else {
                 if (receivedBytes == -1)
                     result.setError(ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value());
 
-                return result;
+                return;
             }
         }
     }
@@ -0,0 +1,133 @@
+package com.fpnn.sdk;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-generated ephemeral EC key pairs, one pool per curve, refilled by a background thread.
+ * Each key pair is handed out once. On a miss the caller generates the key pair itself.
+ */
+
+class EphemeralKeyPool {
+
+    private static final ConcurrentHashMap<String, EphemeralKeyPool> pools = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong(0);
+    private static final AtomicLong misses = new AtomicLong(0);
+    private static ExecutorService refillExecutor = null;
+
+    private final String curve;
+    private final ConcurrentLinkedQueue<KeyPair> keyPairs;
+    private final AtomicInteger size;
+    private final AtomicBoolean refilling;
+    private final ThreadLocal<KeyPairGenerator> generators;    //-- Generators aren't thread safe.
+
+    private EphemeralKeyPool(String curve) {
+        this.curve = curve;
+        keyPairs = new ConcurrentLinkedQueue<>();
+        size = new AtomicInteger(0);
+        refilling = new AtomicBoolean(false);
+        generators = new ThreadLocal<>();
+    }
+
+    //-- The pool starts filling when it is got for the first time.
+    static EphemeralKeyPool getPool(String curve) throws GeneralSecurityException {
+        EphemeralKeyPool pool = pools.get(curve);
+        if (pool == null) {
+            newGenerator(curve);        //-- Throw here for unsupported curves.
+
+            EphemeralKeyPool newPool = new EphemeralKeyPool(curve);
+            pool = pools.putIfAbsent(curve, newPool);
+            if (pool == null)
+                pool = newPool;
+        }
+
+        pool.refill();
+        return pool;
+    }
+
+    static long hitCount() {
+        return hits.get();
+    }
+
+    static long missCount() {
+        return misses.get();
+    }
+
+    private static KeyPairGenerator newGenerator(String curve) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", "SunEC");
+        generator.initialize(new ECGenParameterSpec(curve));
+        return generator;
+    }
+
+    //-- Initialized once per thread, so misses & refills only pay for the key pair generation.
+    private KeyPairGenerator generator() throws GeneralSecurityException {
+        KeyPairGenerator generator = generators.get();
+        if (generator == null) {
+            generator = newGenerator(curve);
+            generators.set(generator);
+        }
+        return generator;
+    }
+
+    private static synchronized ExecutorService getRefillExecutor() {
+        if (refillExecutor == null) {
+            refillExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "FPNN-ECDH-Key-Pool");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return refillExecutor;
+    }
+
+    KeyPair take() throws GeneralSecurityException {
+        KeyPair keyPair = keyPairs.poll();
+        if (keyPair != null) {
+            size.decrementAndGet();
+            hits.incrementAndGet();
+        }
+        else {
+            misses.incrementAndGet();
+            keyPair = generator().generateKeyPair();
+        }
+
+        refill();
+        return keyPair;
+    }
+
+    private void refill() {
+        if (size.get() >= ClientEngine.getEphemeralKeyPoolSize())
+            return;
+
+        if (!refilling.compareAndSet(false, true))
+            return;
+
+        getRefillExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    KeyPairGenerator generator = generator();
+                    while (size.get() < ClientEngine.getEphemeralKeyPoolSize()) {
+                        keyPairs.offer(generator.generateKeyPair());
+                        size.incrementAndGet();
+                    }
+                }
+                catch (GeneralSecurityException e) {
+                    ErrorRecorder.record("Refill ephemeral key pool for curve " + curve + " failed.", e);
+                }
+                finally {
+                    refilling.set(false);
+                }
+            }
+        });
+    }
+}
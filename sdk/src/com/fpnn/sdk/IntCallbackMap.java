@@ -0,0 +1,137 @@
+package com.fpnn.sdk;
+
+import java.util.function.Consumer;
+
+/**
+ * Open addressing seqNum -> AnswerCallback table for in-flight quests.
+ * Linear probing with backward shift deletion: no boxing, no per-entry node, no tombstones.
+ * Not thread safe. Timeout ordering is kept by QuestTimeoutWheel, not here.
+ */
+
+class IntCallbackMap {
+
+    private static final int minCapacity = 16;     //-- MUST be power of 2.
+
+    private int[] keys;
+    private AnswerCallback[] values;                //-- null value means empty slot.
+    private int mask;
+    private int size;
+    private int resizeThreshold;
+
+    IntCallbackMap() {
+        allocate(minCapacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new AnswerCallback[capacity];
+        mask = capacity - 1;
+        resizeThreshold = capacity >> 1;            //-- Load factor 0.5 keeps probe chains short.
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    int size() {
+        return size;
+    }
+
+    AnswerCallback get(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key)
+                return values[index];
+
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    //-- Return the replaced callback, or null.
+    AnswerCallback put(int key, AnswerCallback callback) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                AnswerCallback old = values[index];
+                values[index] = callback;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+
+        keys[index] = key;
+        values[index] = callback;
+        size += 1;
+
+        if (size > resizeThreshold)
+            rehash(values.length << 1);
+
+        return null;
+    }
+
+    AnswerCallback remove(int key) {
+        int index = hash(key) & mask;
+        while (values[index] != null) {
+            if (keys[index] == key) {
+                AnswerCallback old = values[index];
+                shiftBackward(index);
+                size -= 1;
+                return old;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    //-- Close the gap at index by moving back later entries of the same probe chain.
+    private void shiftBackward(int gap) {
+        values[gap] = null;
+
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            if (values[index] == null)
+                return;
+
+            int ideal = hash(keys[index]) & mask;
+            if (((index - ideal) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                values[index] = null;
+                gap = index;
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        AnswerCallback[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+
+            int index = hash(oldKeys[i]) & mask;
+            while (values[index] != null)
+                index = (index + 1) & mask;
+
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+        }
+    }
+
+    void forEachValue(Consumer<AnswerCallback> action) {
+        for (AnswerCallback callback : values)
+            if (callback != null)
+                action.accept(callback);
+    }
+
+    //-- Also releases the memory kept by a previous burst of in-flight quests.
+    void clear() {
+        allocate(minCapacity);
+        size = 0;
+    }
+}
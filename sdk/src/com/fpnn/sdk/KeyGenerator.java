@@ -6,11 +6,13 @@ import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.*;
 import java.security.interfaces.ECPublicKey;
 import java.security.spec.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class KeyGenerator {
 
@@ -18,18 +20,24 @@ class KeyGenerator {
 
         public byte[] selfPublicKey;
 
-        public Cipher encryptor;
+        public Cipher encryptor;            //-- Package mode.
         public Cipher decryptor;
 
+        CFBStreamCipher streamEncryptor;    //-- Stream mode.
+        CFBStreamCipher streamDecryptor;
+
         public boolean streamMode;
         public int keyLength;
     }
 
+    //-- Parsed server public keys, shared by clients using the same key.
+    private static final ConcurrentHashMap<ByteBuffer, ECPublicKey> serverPublicKeyCache = new ConcurrentHashMap<>();
+
     private boolean streamMode;
     private int keyLength;
 
     private ECPublicKey serverPublicKey;
-    private KeyPairGenerator keyPairGen;
+    private EphemeralKeyPool keyPool;
 
     KeyGenerator(String curve, byte[] peerPublicKey, boolean isStreamMode, boolean reinforce)
             throws GeneralSecurityException {
@@ -41,13 +49,29 @@ class KeyGenerator {
         else
             keyLength = 128;
 
+        serverPublicKey = parseServerPublicKey(peerPublicKey);
+        keyPool = EphemeralKeyPool.getPool(curve);
+    }
+
+    private static ECPublicKey parseServerPublicKey(byte[] peerPublicKey) throws GeneralSecurityException {
+        ByteBuffer cacheKey = ByteBuffer.wrap(peerPublicKey.clone());
+        ECPublicKey key = serverPublicKeyCache.get(cacheKey);
+        if (key != null)
+            return key;
+
         KeyFactory kf = KeyFactory.getInstance("EC");
         X509EncodedKeySpec pkSpec = new X509EncodedKeySpec(peerPublicKey);
-        PublicKey puk = kf.generatePublic(pkSpec);
-        serverPublicKey = (ECPublicKey) puk;
+        key = (ECPublicKey) kf.generatePublic(pkSpec);
 
-        keyPairGen = KeyPairGenerator.getInstance("EC", "SunEC");
-        keyPairGen.initialize(new ECGenParameterSpec(curve));
+        serverPublicKeyCache.putIfAbsent(cacheKey, key);
+        return key;
+    }
+
+    //-- Unsigned big-endian, left padded to the field size.
+    private static void writeCoordinate(BigInteger value, byte[] output, int offset, int length) {
+        byte[] data = value.toByteArray();
+        int skip = (data.length > length) ? data.length - length : 0;       //-- Sign byte.
+        System.arraycopy(data, skip, output, offset + length - (data.length - skip), data.length - skip);
     }
 
     static KeyGenerator create(String curve, String keyDerFilePath, boolean isStreamMode, boolean reinforce)
@@ -58,8 +82,8 @@ class KeyGenerator {
 
     EncryptionKit gen() throws GeneralSecurityException {
 
-        //-- Generate Shared Secret
-        KeyPair keyPair = keyPairGen.generateKeyPair();
+        //-- Generate Shared Secret. Key pair generation is the costly part, so it's pre-generated.
+        KeyPair keyPair = keyPool.take();
         PublicKey puk = keyPair.getPublic();
 
         KeyAgreement ka = KeyAgreement.getInstance("ECDH");
@@ -73,20 +97,12 @@ class KeyGenerator {
         //-- Generate Self Public Key
         ECPublicKey ecpk = (ECPublicKey) puk;
         ECPoint ecpoint = ecpk.getW();
-        BigInteger bigIntegerX = ecpoint.getAffineX();
-        BigInteger bigIntegerY = ecpoint.getAffineY();
-        byte[] xba = bigIntegerX.toByteArray();
-        byte[] yba = bigIntegerY.toByteArray();
-
-        int xIdx = 0, yIdx = 0;
-        if (xba[0] == 0)
-            xIdx = 1;
-        if (yba[0] == 0)
-            yIdx = 1;
+        int coordinateLength = (ecpk.getParams().getCurve().getField().getFieldSize() + 7) / 8;
 
-        encKit.selfPublicKey = new byte[xba.length + yba.length - xIdx - yIdx];
-        System.arraycopy(xba, xIdx, encKit.selfPublicKey, 0, xba.length - xIdx);
-        System.arraycopy(yba, yIdx, encKit.selfPublicKey, xba.length - xIdx, yba.length - yIdx);
+        //-- Fixed width: a coordinate with leading zero bytes MUST NOT shorten the key.
+        encKit.selfPublicKey = new byte[coordinateLength * 2];
+        writeCoordinate(ecpoint.getAffineX(), encKit.selfPublicKey, 0, coordinateLength);
+        writeCoordinate(ecpoint.getAffineY(), encKit.selfPublicKey, coordinateLength, coordinateLength);
 
         //-- Generate AES Encrypt/Decrypt Key
         byte[] encryptKey = genEncryptKey(sharedSecret);
@@ -96,8 +112,14 @@ class KeyGenerator {
         md5.update(sharedSecret);
         byte[] encryptIV = md5.digest();
 
-        encKit.encryptor = buildAESEncryptor(encryptIV, encryptKey);
-        encKit.decryptor = buildAESDecryptor(encryptIV, encryptKey);
+        if (streamMode) {
+            encKit.streamEncryptor = new CFBStreamCipher(encryptKey, encryptIV, true);
+            encKit.streamDecryptor = new CFBStreamCipher(encryptKey, encryptIV, false);
+        }
+        else {
+            encKit.encryptor = buildAESEncryptor(encryptIV, encryptKey);
+            encKit.decryptor = buildAESDecryptor(encryptIV, encryptKey);
+        }
 
         encKit.keyLength = keyLength;
         encKit.streamMode = streamMode;
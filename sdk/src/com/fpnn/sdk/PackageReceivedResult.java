@@ -6,8 +6,8 @@ import com.fpnn.sdk.proto.Quest;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.util.LinkedList;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Map;
 
 /**
@@ -18,16 +18,84 @@ public class PackageReceivedResult {
     public boolean success;
     public int errorCode;
 
-    private LinkedList<ByteBuffer> caches;
-    private LinkedList<Answer> answerList;
-    private LinkedList<Quest> questList;
+    private QuestHandlerRegistry registry;
+    private DecodePipeline pipeline;            //-- null: all packages are decoded inline.
+    private ArrayList<Answer> answerList;
+    private ArrayList<Quest> questList;
 
-     PackageReceivedResult() {
+    //-- Read budget of current receive(). 0 means unlimited.
+    private int readBudgetBytes;
+    private int readBudgetPackages;
+    private int readBytes;
+    private int receivedPackages;
+    private boolean budgetExhausted;
+
+    private boolean lazyPayload;        //-- Per connection. ClientEngine.isLazyPayload() applies to all.
+
+    PackageReceivedResult() {
         success = true;
         errorCode = ErrorCode.FPNN_EC_OK.value();
-        caches = null;
-        answerList = null;
-        questList = null;
+        registry = null;
+        pipeline = null;
+        answerList = new ArrayList<>();
+        questList = new ArrayList<>();
+        readBudgetBytes = 0;
+        readBudgetPackages = 0;
+        readBytes = 0;
+        receivedPackages = 0;
+        budgetExhausted = false;
+        lazyPayload = false;
+    }
+
+    void setQuestHandlerRegistry(QuestHandlerRegistry registry) {
+        this.registry = registry;
+    }
+
+    void setDecodePipeline(DecodePipeline pipeline) {
+        this.pipeline = pipeline;
+    }
+
+    void setLazyPayload(boolean enable) {
+        lazyPayload = enable;
+    }
+
+    boolean isLazyPayload() {
+        return lazyPayload || ClientEngine.isLazyPayload();
+    }
+
+    void setReadBudget(int bytes, int packages) {
+        readBudgetBytes = bytes;
+        readBudgetPackages = packages;
+    }
+
+    //-- Reused by the connection for each read.
+    void reset() {
+        success = true;
+        errorCode = ErrorCode.FPNN_EC_OK.value();
+        readBytes = 0;
+        receivedPackages = 0;
+        budgetExhausted = false;
+        clearPackages();
+    }
+
+    //-- Called by receivers after each read, when the received bytes are framed.
+    //-- Return true if the receiver MUST stop reading: the connection will be served again in the next loop.
+    public boolean consumeReadBudget(int bytes) {
+        readBytes += bytes;
+        if ((readBudgetBytes > 0 && readBytes >= readBudgetBytes)
+                || (readBudgetPackages > 0 && receivedPackages >= readBudgetPackages))
+            budgetExhausted = true;
+
+        return budgetExhausted;
+    }
+
+    public boolean isReadBudgetExhausted() {
+        return budgetExhausted;
+    }
+
+    void clearPackages() {
+        answerList.clear();
+        questList.clear();
     }
 
     public void setError(int errorCode) {
@@ -35,99 +103,152 @@ public class PackageReceivedResult {
         this.errorCode = errorCode;
     }
 
-    public void addPackage(ByteBuffer header, ByteBuffer body) {
-        if (caches == null)
-            caches = new LinkedList<>();
+    private int getSeqNum(ByteBuffer bodyBuffer) {
+        int position = bodyBuffer.position();
+        return (bodyBuffer.get(position) & 0xFF)
+                | ((bodyBuffer.get(position + 1) & 0xFF) << 8)
+                | ((bodyBuffer.get(position + 2) & 0xFF) << 16)
+                | ((bodyBuffer.get(position + 3) & 0xFF) << 24);
+    }
+
+    //-- Registered method names are resolved from raw bytes to interned Strings.
+    //-- offset is relative to the position of bodyBuffer.
+    private String decodeMethodName(ByteBuffer bodyBuffer, int offset, int length) {
+        if (bodyBuffer.hasArray()) {
+            byte[] data = bodyBuffer.array();
+            int start = bodyBuffer.arrayOffset() + bodyBuffer.position() + offset;
+
+            if (registry != null) {
+                String method = registry.lookupMethodName(data, start, length);
+                if (method != null)
+                    return method;
+            }
+            return new String(data, start, length, StandardCharsets.UTF_8);
+        }
 
-        caches.add(header);
-        caches.add(body);
+        int start = bodyBuffer.position() + offset;
+        if (registry != null) {
+            String method = registry.lookupMethodName(bodyBuffer, start, length);
+            if (method != null)
+                return method;
+        }
+
+        byte[] name = new byte[length];
+        for (int i = 0; i < length; i++)
+            name[i] = bodyBuffer.get(start + i);
+
+        return new String(name, StandardCharsets.UTF_8);
     }
 
-    private int getSeqNum(ByteBuffer bodyBuffer) {
-        return (bodyBuffer.get(0) & 0xFF)
-                | ((bodyBuffer.get(1) & 0xFF) << 8)
-                | ((bodyBuffer.get(2) & 0xFF) << 16)
-                | ((bodyBuffer.get(3) & 0xFF) << 24);
+    //-- Direct buffers are unpacked in place, without copying to a heap array.
+    //-- The unpacker is reused by the decoding thread: selector thread or decode pipeline.
+    private static Map<Object, Object> unpackPayload(ByteBuffer bodyBuffer, int offset, int length) throws IOException {
+        if (bodyBuffer.hasArray())
+            return MessagePayloadUnpacker.unpack(bodyBuffer.array(),
+                    bodyBuffer.arrayOffset() + bodyBuffer.position() + offset, length);
+
+        ByteBuffer payloadBuffer = bodyBuffer.duplicate();
+        payloadBuffer.position(bodyBuffer.position() + offset);
+        payloadBuffer.limit(bodyBuffer.position() + offset + length);
+        return MessagePayloadUnpacker.unpack(payloadBuffer);
+    }
+
+    //-- Lazy payloads are copied out of the receive buffer, and decoded when accessed.
+    private static byte[] copyPayload(ByteBuffer bodyBuffer, int offset, int length) throws IOException {
+        byte[] payload = new byte[length];
+        ByteBuffer payloadBuffer = bodyBuffer.duplicate();
+        payloadBuffer.position(bodyBuffer.position() + offset);
+        payloadBuffer.get(payload);
+
+        if (!MessagePayloadUnpacker.isMapHeader(payload[0]))
+            throw new IOException("Invalid payload format.");
+
+        return payload;
     }
-    public void processPackage() {
 
-        if (caches == null)
+    //-- Header & body may be views of a receive buffer which will be overwritten by the next read,
+    //-- so the package is decoded at once, or copied into the decode pipeline.
+    public void addPackage(ByteBuffer headerBuffer, ByteBuffer bodyBuffer) {
+        receivedPackages += 1;
+
+        if (pipeline != null && !pipeline.decodeInline(bodyBuffer.remaining())) {
+            if (success)
+                pipeline.submit(this, headerBuffer, bodyBuffer, registry);
+
             return;
+        }
 
-        answerList = new LinkedList<>();
-        questList = new LinkedList<>();
-        
-        while (caches.size() > 0) {
-            ByteBuffer headerBuffer = caches.getFirst();
-            caches.remove();
-            ByteBuffer bodyBuffer = caches.getFirst();
-            caches.remove();
-
-            byte mtype = headerBuffer.get(6);
-            byte ss = headerBuffer.get(7);
-            int payloadLength = (headerBuffer.get(8) & 0xFF)
-                    | ((headerBuffer.get(9) & 0xFF) << 8)
-                    | ((headerBuffer.get(10) & 0xFF) << 16)
-                    | ((headerBuffer.get(11) & 0xFF) << 24);
-
-            String packageType = "unknown";
-            try {
-                if (mtype == 2) {
-                    packageType = "Answer";
+        decodePackage(headerBuffer, bodyBuffer);
+    }
 
-                    int seqNum = getSeqNum(bodyBuffer);
+    void decodePackage(ByteBuffer headerBuffer, ByteBuffer bodyBuffer) {
 
-                    byte[] data = bodyBuffer.array();
-                    MessagePayloadUnpacker unpacker = new MessagePayloadUnpacker(data, 4, payloadLength);
-                    Map payload = unpacker.unpack();
+        byte mtype = headerBuffer.get(6);
+        int ss = headerBuffer.get(7) & 0xFF;
+        int payloadLength = (headerBuffer.get(8) & 0xFF)
+                | ((headerBuffer.get(9) & 0xFF) << 8)
+                | ((headerBuffer.get(10) & 0xFF) << 16)
+                | ((headerBuffer.get(11) & 0xFF) << 24);
 
-                    Answer answer = new Answer(seqNum, ss != 0, payload);
-                    answerList.add(answer);
+        boolean lazy = isLazyPayload();
+        String packageType = "unknown";
+        try {
+            if (mtype == 2) {
+                packageType = "Answer";
 
-                } else {
-                    if (!success)
-                        continue;
+                int seqNum = getSeqNum(bodyBuffer);
+                Answer answer;
+                if (lazy)
+                    answer = new Answer(seqNum, ss != 0, copyPayload(bodyBuffer, 4, payloadLength));
+                else
+                    answer = new Answer(seqNum, ss != 0, unpackPayload(bodyBuffer, 4, payloadLength));
 
-                    if (mtype == 1) {
-                        packageType = "Two Way Quest";
+                answerList.add(answer);
 
-                        int seqNum = getSeqNum(bodyBuffer);
+            } else {
+                if (!success)
+                    return;
 
-                        byte[] data = bodyBuffer.array();
-                        String method = new String(data, 4, ss, Charset.forName("UTF-8"));
-                        MessagePayloadUnpacker unpacker = new MessagePayloadUnpacker(data, 4 + ss, payloadLength);
-                        Map payload = unpacker.unpack();
+                if (mtype == 1) {
+                    packageType = "Two Way Quest";
 
-                        Quest quest = new Quest(method, seqNum, false, payload);
-                        questList.add(quest);
+                    int seqNum = getSeqNum(bodyBuffer);
+                    String method = decodeMethodName(bodyBuffer, 4, ss);
+                    Quest quest;
+                    if (lazy)
+                        quest = new Quest(method, seqNum, false, copyPayload(bodyBuffer, 4 + ss, payloadLength));
+                    else
+                        quest = new Quest(method, seqNum, false, unpackPayload(bodyBuffer, 4 + ss, payloadLength));
 
-                    } else if (mtype == 0) {
-                        packageType = "One Way Quest";
+                    questList.add(quest);
 
-                        byte[] data = bodyBuffer.array();
-                        String method = new String(data, 0, ss, Charset.forName("UTF-8"));
-                        MessagePayloadUnpacker unpacker = new MessagePayloadUnpacker(data, ss, payloadLength);
-                        Map payload = unpacker.unpack();
+                } else if (mtype == 0) {
+                    packageType = "One Way Quest";
 
-                        Quest quest = new Quest(method, 0, true, payload);
-                        questList.add(quest);
+                    String method = decodeMethodName(bodyBuffer, 0, ss);
+                    Quest quest;
+                    if (lazy)
+                        quest = new Quest(method, 0, true, copyPayload(bodyBuffer, ss, payloadLength));
+                    else
+                        quest = new Quest(method, 0, true, unpackPayload(bodyBuffer, ss, payloadLength));
 
-                    } else {
-                        ErrorRecorder.record("Unsupported package type. package payload length: "
-                                + payloadLength + ". mType: " + mtype);
-                    }
+                    questList.add(quest);
+
+                } else {
+                    ErrorRecorder.record("Unsupported package type. package payload length: "
+                            + payloadLength + ". mType: " + mtype);
                 }
-            } catch (IOException e) {
-                ErrorRecorder.record("Decoding package exception. package payload length: "
-                        + payloadLength + ". Package type: " + packageType, e);
             }
+        } catch (IOException e) {
+            ErrorRecorder.record("Decoding package exception. package payload length: "
+                    + payloadLength + ". Package type: " + packageType, e);
         }
     }
 
-    public LinkedList<Answer> getAnswerList() {
+    public ArrayList<Answer> getAnswerList() {
          return answerList;
     }
-    public LinkedList<Quest> getQuestList() {
+    public ArrayList<Quest> getQuestList() {
          return questList;
     }
 }
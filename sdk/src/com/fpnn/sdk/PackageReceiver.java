@@ -13,115 +13,248 @@ public class PackageReceiver implements PackageReceiverInterface {
 
     private static int FPNNHeadLength = 12;
 
-    private ByteBuffer headerRecvBuffer;
-    private ByteBuffer bodyRecvBuffer;
-    private boolean recvHeader;
-    private int bodyLength;
-    private int receivedLength;
+    private static int shrinkAfterSmallReads = 8;
+
+    //-- One reusable buffer. [readIndex, buffer.position()) are received bytes not parsed yet.
+    //-- null when given back to BufferPool by an idle connection.
+    private PooledBuffer pooledBuffer;
+    private ByteBuffer buffer;
+    private int readIndex;
+
+    //-- Adaptive sizing: grow when reads fill the buffer, shrink after successive small reads.
+    private int initialSize;
+    private int preferredSize;
+    private int smallReads;
+    private volatile int heldBytes;
 
     public PackageReceiver () {
-        prepareHeadBuffer();
+        initialSize = BufferPool.classCapacity(ClientEngine.getReceiveBufferSize());
+        preferredSize = initialSize;
+        smallReads = 0;
+        pooledBuffer = null;
+        buffer = null;
+        readIndex = 0;
+        heldBytes = 0;
+    }
+
+    public int heldBufferBytes() {
+        return heldBytes;
+    }
+
+    //-- Only release when no partial package is held.
+    public void releaseIdleBuffers() {
+        if (buffer == null || buffer.position() > 0)
+            return;
+
+        releaseBuffers();
+    }
+
+    public void releaseBuffers() {
+        if (pooledBuffer == null)
+            return;
+
+        pooledBuffer.release();
+        pooledBuffer = null;
+        buffer = null;
+        readIndex = 0;
+        preferredSize = initialSize;
+        smallReads = 0;
+        heldBytes = 0;
     }
 
-    private void prepareHeadBuffer() {
-        headerRecvBuffer = ByteBuffer.allocate(FPNNHeadLength);
-        bodyRecvBuffer = null;
-        recvHeader = true;
-        bodyLength = 0;
-        receivedLength = 0;
+    private void prepareBuffer() {
+        if (buffer == null) {
+            pooledBuffer = BufferPool.forIO().acquire(preferredSize);
+            buffer = pooledBuffer.buffer();
+            buffer.clear();
+            readIndex = 0;
+            heldBytes = buffer.capacity();
+        }
     }
 
-    private boolean prepareBodyBuffer(PackageReceivedResult result, InetSocketAddress peerAddress) {
-        recvHeader = false;
-        headerRecvBuffer.flip();
+    private void resize(int capacity) {
+        PooledBuffer newPooledBuffer = BufferPool.forIO().acquire(capacity);
+        ByteBuffer newBuffer = newPooledBuffer.buffer();
+        newBuffer.clear();
 
-        if ((headerRecvBuffer.get(0) != 0x46)
-                || (headerRecvBuffer.get(1) != 0x50)
-                || (headerRecvBuffer.get(2) != 0x4e)
-                || (headerRecvBuffer.get(3) != 0x4e)) {
+        buffer.limit(buffer.position());
+        buffer.position(readIndex);
+        newBuffer.put(buffer);
+
+        pooledBuffer.release();
+        pooledBuffer = newPooledBuffer;
+        buffer = newBuffer;
+        readIndex = 0;
+        heldBytes = newBuffer.capacity();
+    }
+
+    private void adaptSize(int receivedBytes, boolean filled) {
+        if (filled) {
+            smallReads = 0;
+            if (preferredSize < ClientEngine.getMaxReceiveBufferSize())
+                preferredSize = Math.max(Math.min(preferredSize * 2, ClientEngine.getMaxReceiveBufferSize()), initialSize);
+        }
+        else if (preferredSize > initialSize && receivedBytes <= preferredSize / 4) {
+            smallReads += 1;
+            if (smallReads >= shrinkAfterSmallReads) {
+                smallReads = 0;
+                preferredSize = Math.max(preferredSize / 2, initialSize);
+            }
+        }
+        else
+            smallReads = 0;
+    }
+
+    //-- Return the whole frame length, or -1 if the header is invalid.
+    private int frameLength(int offset, PackageReceivedResult result, InetSocketAddress peerAddress) {
+
+        if ((buffer.get(offset) != 0x46)
+                || (buffer.get(offset + 1) != 0x50)
+                || (buffer.get(offset + 2) != 0x4e)
+                || (buffer.get(offset + 3) != 0x4e)) {
 
             result.setError(ErrorCode.FPNN_EC_PROTO_INVALID_PACKAGE.value());
             ErrorRecorder.record("Received data magic code mismatched. Connection will be closed. Channel: " + peerAddress.toString());
-            return false;
+            return -1;
         }
 
-        if ((headerRecvBuffer.get(5) & 0x80) == 0) {
+        if ((buffer.get(offset + 5) & 0x80) == 0) {
             result.setError(ErrorCode.FPNN_EC_PROTO_PROTO_TYPE.value());
             ErrorRecorder.record("Received data is not encoding by msgpack. Connection will be closed. Channel: " + peerAddress.toString());
-            return false;
+            return -1;
         }
 
-        bodyLength = (headerRecvBuffer.get(8) & 0xFF)
-                | ((headerRecvBuffer.get(9) & 0xFF) << 8)
-                | ((headerRecvBuffer.get(10) & 0xFF) << 16)
-                | ((headerRecvBuffer.get(11) & 0xFF) << 24);
+        int bodyLength = (buffer.get(offset + 8) & 0xFF)
+                | ((buffer.get(offset + 9) & 0xFF) << 8)
+                | ((buffer.get(offset + 10) & 0xFF) << 16)
+                | ((buffer.get(offset + 11) & 0xFF) << 24);
 
         if (bodyLength < 1 || bodyLength > ClientEngine.getMaxPackageLength()) {
             result.setError(ErrorCode.FPNN_EC_PROTO_INVALID_PACKAGE.value());
             ErrorRecorder.record("Received invalid package. package payload length: "
                     + bodyLength + ". Connection will be closed. Channel: " + peerAddress.toString());
-            return false;
+            return -1;
         }
 
-        int mtype = headerRecvBuffer.get(6);
-        //if (mtype == 1 || mtype == 2)
-        //    bodyLength += 4;
+        int mtype = buffer.get(offset + 6);
+        int ss = buffer.get(offset + 7) & 0xFF;
 
         if (mtype == 2)
             bodyLength += 4;
-        else if (mtype == 1) {
-            bodyLength += 4 + headerRecvBuffer.get(7);
-        }
+        else if (mtype == 1)
+            bodyLength += 4 + ss;
         else if (mtype == 0)
-            bodyLength += headerRecvBuffer.get(7);
+            bodyLength += ss;
+
+        return FPNNHeadLength + bodyLength;
+    }
 
-        bodyRecvBuffer = ByteBuffer.allocate(bodyLength);
-        receivedLength = 0;
+    //-- Keep the unparsed tail, make room for a frame of frameLength bytes, and apply the preferred size.
+    private void compact(int frameLength) {
+        int unparsed = buffer.position() - readIndex;
+        int capacity = buffer.capacity();
+        int newCapacity = capacity;
 
+        if (frameLength > capacity)
+            newCapacity = Math.max(frameLength, Math.min(capacity * 2,
+                    ClientEngine.getMaxPackageLength() + FPNNHeadLength + 4 + 255));
+        else {
+            int preferredCapacity = BufferPool.classCapacity(preferredSize);
+            if (capacity < preferredCapacity || (capacity > preferredCapacity && unparsed == 0))
+                newCapacity = preferredCapacity;
+        }
+
+        if (newCapacity != capacity)
+            resize(newCapacity);
+        else if (readIndex > 0) {
+            buffer.limit(buffer.position());
+            buffer.position(readIndex);
+            buffer.compact();
+            readIndex = 0;
+        }
+    }
+
+    //-- Decode all complete frames in place. Return false if the stream is invalid.
+    private boolean parseFrames(PackageReceivedResult result, InetSocketAddress peerAddress) {
+
+        int end = buffer.position();
+        int pendingFrameLength = FPNNHeadLength;
+
+        while (end - readIndex >= FPNNHeadLength) {
+            int frameLength = frameLength(readIndex, result, peerAddress);
+            if (frameLength < 0)
+                return false;
+
+            if (end - readIndex < frameLength) {
+                pendingFrameLength = frameLength;
+                break;
+            }
+
+            //-- Header & body are views of the receive buffer. They are decoded before the buffer is reused.
+            ByteBuffer view = buffer.duplicate();
+            view.position(readIndex);
+            view.limit(readIndex + FPNNHeadLength);
+            ByteBuffer header = view.slice();
+
+            view.limit(readIndex + frameLength);
+            view.position(readIndex + FPNNHeadLength);
+            ByteBuffer body = view.slice();
+
+            result.addPackage(header, body);
+            readIndex += frameLength;
+        }
+
+        compact(pendingFrameLength);
         return true;
     }
 
-    public PackageReceivedResult receive(SocketChannel channel, InetSocketAddress peerAddress) {
+    //-- Frame bytes already read (and decrypted) by another receiver. Return false if the stream is invalid.
+    boolean consume(ByteBuffer data, PackageReceivedResult result, InetSocketAddress peerAddress) {
 
-        PackageReceivedResult result = new PackageReceivedResult();
+        prepareBuffer();
+        while (data.hasRemaining()) {
+            int count = Math.min(buffer.remaining(), data.remaining());
+
+            int limit = data.limit();
+            data.limit(data.position() + count);
+            buffer.put(data);
+            data.limit(limit);
+
+            if (!parseFrames(result, peerAddress))
+                return false;
+        }
+        return true;
+    }
+
+    public void receive(SocketChannel channel, InetSocketAddress peerAddress, PackageReceivedResult result) {
+
+        prepareBuffer();
 
         int receivedBytes;
         while (true) {
 
             try {
-                if (recvHeader)
-                    receivedBytes = channel.read(headerRecvBuffer);
-                else
-                    receivedBytes = channel.read(bodyRecvBuffer);
+                receivedBytes = channel.read(buffer);
             } catch (IOException e) {
                 ErrorRecorder.record("Receive data error. Connection will be closed. Channel: " + peerAddress.toString(), e);
                 result.setError(ErrorCode.FPNN_EC_CORE_RECV_ERROR.value());
-                return result;
+                return;
             }
 
             if (receivedBytes > 0) {
+                adaptSize(receivedBytes, !buffer.hasRemaining());
 
-                receivedLength += receivedBytes;
-
-                if (recvHeader) {
-                    if (receivedLength == FPNNHeadLength) {
-                        if (!prepareBodyBuffer(result, peerAddress))
-                            return result;
-                    }
+                if (!parseFrames(result, peerAddress))
+                    return;
 
-                } else {
-                    if (receivedLength == bodyLength) {
-                        bodyRecvBuffer.flip();
-                        result.addPackage(headerRecvBuffer, bodyRecvBuffer);
-                        prepareHeadBuffer();
-                    }
-                }
+                if (result.consumeReadBudget(receivedBytes))
+                    return;
 
             } else {
                 if (receivedBytes == -1)
                     result.setError(ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value());
 
-                return result;
+                return;
             }
         }
     }
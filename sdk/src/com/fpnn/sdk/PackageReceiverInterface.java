@@ -4,5 +4,15 @@ import java.net.InetSocketAddress;
 import java.nio.channels.SocketChannel;
 
 public interface PackageReceiverInterface {
-    PackageReceivedResult receive(SocketChannel channel, InetSocketAddress peerAddress);
+    //-- Received packages are decoded into result before return. Errors are set into result.
+    void receive(SocketChannel channel, InetSocketAddress peerAddress, PackageReceivedResult result);
+
+    //-- Bytes of receive buffers currently held. Can be called in any thread.
+    int heldBufferBytes();
+
+    //-- Called by engine core thread when the connection is idle. Buffers holding a partial package are kept.
+    void releaseIdleBuffers();
+
+    //-- Called by engine core thread when the connection is closed. Gives all buffers back to BufferPool.
+    void releaseBuffers();
 }
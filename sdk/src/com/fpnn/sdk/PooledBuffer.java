@@ -0,0 +1,91 @@
+package com.fpnn.sdk;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Reference counted buffer taken from a BufferPool.
+ * The buffer returns to its pool when the count drops to 0. Views of it MUST NOT be used after that.
+ */
+
+public class PooledBuffer {
+
+    private static final AtomicIntegerFieldUpdater<PooledBuffer> refCountUpdater =
+            AtomicIntegerFieldUpdater.newUpdater(PooledBuffer.class, "refCount");
+
+    //-- Registered when leak detection is on. Enqueued if the PooledBuffer is collected without release.
+    static class LeakTracker extends PhantomReference<PooledBuffer> {
+        final int capacity;
+        final Exception acquiredAt;
+
+        LeakTracker(PooledBuffer referent, ReferenceQueue<PooledBuffer> queue, int capacity) {
+            super(referent, queue);
+            this.capacity = capacity;
+            this.acquiredAt = new Exception("Pooled buffer acquired here.");
+        }
+    }
+
+    private final BufferPool pool;          //-- null: not pooled.
+    private final ByteBuffer buffer;
+    private volatile int refCount;
+    LeakTracker leakTracker;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.refCount = 1;
+        this.leakTracker = null;
+    }
+
+    //-- Wrap a buffer which isn't from any pool. release() only counts the reference.
+    public static PooledBuffer wrap(ByteBuffer buffer) {
+        return new PooledBuffer(null, buffer);
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    public int refCount() {
+        return refCount;
+    }
+
+    public PooledBuffer retain() {
+        while (true) {
+            int count = refCount;
+            if (count <= 0)
+                throw new IllegalStateException("Retain a released pooled buffer.");
+
+            if (refCountUpdater.compareAndSet(this, count, count + 1))
+                return this;
+        }
+    }
+
+    //-- Return true if the buffer is given back to its pool by this call.
+    public boolean release() {
+        while (true) {
+            int count = refCount;
+            if (count <= 0) {
+                ErrorRecorder.record("Release a pooled buffer which was already released. Capacity: " + buffer.capacity());
+                return false;
+            }
+
+            if (refCountUpdater.compareAndSet(this, count, count - 1)) {
+                if (count > 1)
+                    return false;
+
+                if (pool == null)
+                    return false;
+
+                pool.recycle(this);
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.fpnn.sdk;
+
+import com.fpnn.sdk.proto.Answer;
+import com.fpnn.sdk.proto.Quest;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Server push handler. Return null for one way quests, or when the answer will be sent later by TCPClient.sendAnswer().
+ */
+
+@FunctionalInterface
+public interface QuestHandler {
+    Answer process(Quest quest, InetSocketAddress peerAddress);
+}
@@ -0,0 +1,238 @@
+package com.fpnn.sdk;
+
+import com.fpnn.sdk.proto.Answer;
+import com.fpnn.sdk.proto.Quest;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Method name -> QuestHandler table shared by all connections of a TCPClient.
+ * Lookups are lock free on a copy-on-write snapshot. Method names in received packages
+ * are resolved from the raw bytes, so a registered method costs no String per push.
+ */
+
+class QuestHandlerRegistry {
+
+    private static class Entry {
+        final byte[] name;
+        final int hash;
+        final String method;            //-- Interned.
+        final QuestHandler handler;
+        final boolean legacy;           //-- Built from legacyProcessor.
+
+        Entry(String method, QuestHandler handler, boolean legacy) {
+            this.method = method.intern();
+            this.handler = handler;
+            this.legacy = legacy;
+            name = method.getBytes(StandardCharsets.UTF_8);
+            hash = hash(name, 0, name.length);
+        }
+    }
+
+    private static class Table {
+        final HashMap<String, Entry> entries;
+        final Entry[] slots;            //-- Open addressing on name bytes.
+        final int mask;
+        final boolean empty;            //-- No handler, and no legacy processor.
+
+        Table(HashMap<String, Entry> entries, boolean hasLegacyProcessor) {
+            this.entries = entries;
+            empty = entries.isEmpty() && !hasLegacyProcessor;
+
+            int capacity = 16;
+            while (capacity < entries.size() * 2)
+                capacity <<= 1;
+
+            slots = new Entry[capacity];
+            mask = capacity - 1;
+
+            for (Entry entry : entries.values()) {
+                int index = entry.hash & mask;
+                while (slots[index] != null)
+                    index = (index + 1) & mask;
+
+                slots[index] = entry;
+            }
+        }
+    }
+
+    private volatile Table table;
+
+    //-- Legacy setQuestProcessor() support. Methods are resolved on the first push, then registered.
+    private Object legacyProcessor;
+    private String legacyProcessorName;
+
+    QuestHandlerRegistry() {
+        table = new Table(new HashMap<>(), false);
+        legacyProcessor = null;
+        legacyProcessorName = null;
+    }
+
+    private static int hash(byte[] data, int offset, int length) {
+        int h = 0x811C9DC5;                 //-- FNV-1a
+        for (int i = 0; i < length; i++) {
+            h ^= data[offset + i];
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    //-----------------[ Register ]-------------------
+
+    //-- A null handler removes the method.
+    void register(String method, QuestHandler handler) {
+        register(method, handler, false);
+    }
+
+    private synchronized void register(String method, QuestHandler handler, boolean legacy) {
+        HashMap<String, Entry> entries = new HashMap<>(table.entries);
+        if (handler != null)
+            entries.put(method, new Entry(method, handler, legacy));
+        else
+            entries.remove(method);
+
+        table = new Table(entries, legacyProcessor != null);
+    }
+
+    synchronized void setLegacyProcessor(Object processor, String processorFullClassName) {
+        legacyProcessorName = processorFullClassName;
+        legacyProcessor = processor;
+
+        //-- Handlers resolved before are bound to the previous processor instance.
+        HashMap<String, Entry> entries = new HashMap<>();
+        for (Entry entry : table.entries.values())
+            if (!entry.legacy)
+                entries.put(entry.method, entry);
+
+        table = new Table(entries, processor != null);
+    }
+
+    //-- Lock free: called for each received quest.
+    boolean isEmpty() {
+        return table.empty;
+    }
+
+    //-----------------[ Lookup ]-------------------
+
+    //-- Return the registered (interned) method name, or null if the method is not registered.
+    String lookupMethodName(byte[] data, int offset, int length) {
+        Table current = table;
+        int index = hash(data, offset, length) & current.mask;
+
+        Entry entry;
+        while ((entry = current.slots[index]) != null) {
+            if (sameBytes(entry.name, data, offset, length))
+                return entry.method;
+
+            index = (index + 1) & current.mask;
+        }
+        return null;
+    }
+
+    //-- data[offset, offset + length) in absolute positions. For direct buffers.
+    String lookupMethodName(ByteBuffer data, int offset, int length) {
+        Table current = table;
+
+        int h = 0x811C9DC5;                 //-- FNV-1a, same as hash(byte[], int, int).
+        for (int i = 0; i < length; i++) {
+            h ^= data.get(offset + i);
+            h *= 0x01000193;
+        }
+        int index = (h ^ (h >>> 16)) & current.mask;
+
+        Entry entry;
+        while ((entry = current.slots[index]) != null) {
+            if (sameBytes(entry.name, data, offset, length))
+                return entry.method;
+
+            index = (index + 1) & current.mask;
+        }
+        return null;
+    }
+
+    private static boolean sameBytes(byte[] name, ByteBuffer data, int offset, int length) {
+        if (name.length != length)
+            return false;
+
+        for (int i = 0; i < length; i++)
+            if (name[i] != data.get(offset + i))
+                return false;
+
+        return true;
+    }
+
+    private static boolean sameBytes(byte[] name, byte[] data, int offset, int length) {
+        if (name.length != length)
+            return false;
+
+        for (int i = 0; i < length; i++)
+            if (name[i] != data[offset + i])
+                return false;
+
+        return true;
+    }
+
+    QuestHandler find(String method) throws ReflectiveOperationException {
+        Entry entry = table.entries.get(method);
+        if (entry != null)
+            return entry.handler;
+
+        Object processor;
+        String processorName;
+        synchronized (this) {
+            processor = legacyProcessor;
+            processorName = legacyProcessorName;
+        }
+
+        if (processor == null)
+            return null;
+
+        QuestHandler handler = buildLegacyHandler(processor, processorName, method);
+        synchronized (this) {
+            if (processor != legacyProcessor)
+                return handler;
+
+            //-- A handler registered while the legacy one was being built takes precedence.
+            Entry existed = table.entries.get(method);
+            if (existed != null)
+                return existed.handler;
+
+            register(method, handler, true);
+        }
+        return handler;
+    }
+
+    //-- Resolve once by reflection, then call through a bound MethodHandle instead of Method.invoke().
+    private static QuestHandler buildLegacyHandler(Object processor, String processorName, String method)
+            throws ReflectiveOperationException {
+
+        Class<?> processorClass = Class.forName(processorName);
+        Method reflectMethod = processorClass.getMethod(method, Quest.class, InetSocketAddress.class);
+        reflectMethod.setAccessible(true);          //-- Processor classes are usually package-private.
+
+        MethodHandle handle = MethodHandles.lookup().unreflect(reflectMethod).bindTo(processor)
+                .asType(MethodType.methodType(Answer.class, Quest.class, InetSocketAddress.class));
+
+        return new QuestHandler() {
+            @Override
+            public Answer process(Quest quest, InetSocketAddress peerAddress) {
+                try {
+                    return (Answer) handle.invokeExact(quest, peerAddress);
+                }
+                catch (RuntimeException e) {
+                    throw e;
+                }
+                catch (Throwable e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+}
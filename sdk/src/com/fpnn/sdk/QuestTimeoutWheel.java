@@ -0,0 +1,163 @@
+package com.fpnn.sdk;
+
+import java.util.ArrayList;
+
+/**
+ * Engine-wide hashed timing wheel for quest timeouts.
+ * Registering and cancelling a callback are O(1) and only lock one bucket.
+ */
+
+class QuestTimeoutWheel extends Thread {
+
+    private static final int wheelSize = 512;              //-- MUST be power of 2.
+    private static final int wheelMask = wheelSize - 1;
+
+    private static class Bucket {
+        AnswerCallback head = null;
+    }
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Bucket[] buckets;
+    private final ArrayList<AnswerCallback> expiredCallbacks;
+    private final ArrayList<TCPConnection> expiredConnections;     //-- Parallel to expiredCallbacks.
+
+    //-- Only changed in bucket locks. A tick is processed when processedTick >= tick.
+    private volatile long processedTick;
+    private volatile boolean running;
+
+    QuestTimeoutWheel(int tickMilliseconds) {
+        super("FPNN-Quest-Timeout-Wheel");
+
+        tickNanos = Math.max(tickMilliseconds, 1) * 1000000L;
+        startNanos = System.nanoTime();
+        buckets = new Bucket[wheelSize];
+        for (int i = 0; i < wheelSize; i++)
+            buckets[i] = new Bucket();
+
+        expiredCallbacks = new ArrayList<>();
+        expiredConnections = new ArrayList<>();
+        processedTick = 0;
+        running = true;
+        setDaemon(true);
+    }
+
+    //-----------------[ Register & Cancel ]-------------------
+
+    void add(AnswerCallback callback, TCPConnection connection, long timeoutMilliseconds) {
+
+        if (timeoutMilliseconds < 0)
+            timeoutMilliseconds = 0;
+
+        long elapsed = System.nanoTime() - startNanos + timeoutMilliseconds * 1000000L;
+        long deadlineTick = (elapsed + tickNanos - 1) / tickNanos;
+
+        callback.timeoutConnection = connection;
+
+        while (true) {
+            if (deadlineTick <= processedTick)
+                deadlineTick = processedTick + 1;
+
+            Bucket bucket = buckets[(int) (deadlineTick & wheelMask)];
+            synchronized (bucket) {
+                //-- The wheel thread passed this tick before we got the lock. Retry with the next tick.
+                if (deadlineTick <= processedTick)
+                    continue;
+
+                callback.timeoutTick = deadlineTick;
+                callback.timeoutBucket = bucket;
+                callback.timeoutPrev = null;
+                callback.timeoutNext = bucket.head;
+                if (bucket.head != null)
+                    bucket.head.timeoutPrev = callback;
+
+                bucket.head = callback;
+                return;
+            }
+        }
+    }
+
+    void cancel(AnswerCallback callback) {
+        Object bucketObject = callback.timeoutBucket;
+        if (bucketObject == null)
+            return;
+
+        Bucket bucket = (Bucket) bucketObject;
+        synchronized (bucket) {
+            if (callback.timeoutBucket != bucket)
+                return;
+
+            unlink(bucket, callback);
+        }
+    }
+
+    //-- MUST call synchronized (bucket) outside.
+    //-- Drops the connection too: a retained or reused callback mustn't keep a closed connection reachable.
+    private static void unlink(Bucket bucket, AnswerCallback callback) {
+        if (callback.timeoutPrev != null)
+            callback.timeoutPrev.timeoutNext = callback.timeoutNext;
+        else
+            bucket.head = callback.timeoutNext;
+
+        if (callback.timeoutNext != null)
+            callback.timeoutNext.timeoutPrev = callback.timeoutPrev;
+
+        callback.timeoutPrev = null;
+        callback.timeoutNext = null;
+        callback.timeoutBucket = null;
+        callback.timeoutConnection = null;
+    }
+
+    //-----------------[ Wheel Thread ]-------------------
+
+    private void processTick(long tick) {
+        Bucket bucket = buckets[(int) (tick & wheelMask)];
+
+        synchronized (bucket) {
+            AnswerCallback callback = bucket.head;
+            while (callback != null) {
+                AnswerCallback next = callback.timeoutNext;
+                if (callback.timeoutTick <= tick) {
+                    expiredCallbacks.add(callback);
+                    expiredConnections.add(callback.timeoutConnection);
+                    unlink(bucket, callback);
+                }
+                callback = next;
+            }
+
+            processedTick = tick;
+        }
+
+        for (int i = 0; i < expiredCallbacks.size(); i++) {
+            TCPConnection connection = expiredConnections.get(i);
+            if (connection != null)
+                connection.expireCallback(expiredCallbacks.get(i));
+        }
+        expiredCallbacks.clear();
+        expiredConnections.clear();
+    }
+
+    @Override
+    public void run() {
+
+        while (running) {
+            long currentTick = (System.nanoTime() - startNanos) / tickNanos;
+            for (long tick = processedTick + 1; tick <= currentTick; tick++)
+                processTick(tick);
+
+            long sleepNanos = startNanos + (currentTick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    sleep(sleepNanos / 1000000L, (int) (sleepNanos % 1000000L));
+                } catch (InterruptedException e) {
+                    //-- Do nothing.
+                }
+            }
+        }
+    }
+
+    void finish() {
+        running = false;
+        interrupt();
+    }
+}
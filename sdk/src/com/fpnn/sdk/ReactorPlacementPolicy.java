@@ -0,0 +1,42 @@
+package com.fpnn.sdk;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides which selector loop of the ClientEngine a new connection is bound to.
+ * The returned index MUST be in [0, reactorCount).
+ */
+
+public interface ReactorPlacementPolicy {
+
+    int select(InetSocketAddress peerAddress, int reactorCount);
+
+    //-----------------[ Built-in Policies ]-------------------
+
+    class RoundRobin implements ReactorPlacementPolicy {
+
+        private AtomicInteger counter = new AtomicInteger(0);
+
+        public int select(InetSocketAddress peerAddress, int reactorCount) {
+            return (counter.getAndIncrement() & Integer.MAX_VALUE) % reactorCount;
+        }
+    }
+
+    class LeastConnections implements ReactorPlacementPolicy {
+
+        public int select(InetSocketAddress peerAddress, int reactorCount) {
+            int index = 0;
+            int minCount = Integer.MAX_VALUE;
+
+            for (int i = 0; i < reactorCount; i++) {
+                int count = ClientEngine.getReactorConnectionCount(i);
+                if (count < minCount) {
+                    minCount = count;
+                    index = i;
+                }
+            }
+            return index;
+        }
+    }
+}
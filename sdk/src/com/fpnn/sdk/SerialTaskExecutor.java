@@ -0,0 +1,104 @@
+package com.fpnn.sdk;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks one by one in arrival order on top of a shared executor (the ClientEngine thread pool by default).
+ * Up to batchSize queued tasks are run in one scheduling slot before the slot is handed back to the executor.
+ */
+
+public class SerialTaskExecutor implements Executor {
+
+    public static final int defaultBatchSize = 32;
+
+    private Executor executor;
+    private int batchSize;
+    private ConcurrentLinkedQueue<Runnable> tasks;
+    private AtomicInteger queueDepth;          //-- Queued tasks including the running one.
+    private Runnable drainTask;
+
+    public SerialTaskExecutor() {
+        this(null, defaultBatchSize);
+    }
+
+    public SerialTaskExecutor(int batchSize) {
+        this(null, batchSize);
+    }
+
+    public SerialTaskExecutor(Executor executor, int batchSize) {
+        this.executor = executor;
+        this.batchSize = (batchSize > 0) ? batchSize : defaultBatchSize;
+        tasks = new ConcurrentLinkedQueue<>();
+        queueDepth = new AtomicInteger(0);
+        drainTask = new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        };
+    }
+
+    public int queueDepth() {
+        return queueDepth.get();
+    }
+
+    public void execute(Runnable task) {
+        tasks.offer(task);
+
+        if (queueDepth.getAndIncrement() == 0)
+            schedule();
+    }
+
+    //-- A rejected slot (e.g. the pool is shut down) runs the queued tasks in the current thread,
+    //-- so they are neither lost nor left blocking later tasks.
+    private void schedule() {
+        Executor target = (executor != null) ? executor : ClientEngine.getThreadPool();
+        try {
+            target.execute(drainTask);
+        }
+        catch (RejectedExecutionException e) {
+            ErrorRecorder.record("Schedule serial tasks failed. Run them in current thread. Queued tasks: " + queueDepth.get(), e);
+            drain(Integer.MAX_VALUE);
+        }
+    }
+
+    private void drain() {
+        drain(batchSize);
+    }
+
+    private void drain(int limit) {
+        int executed = 0;
+        while (true) {
+            Runnable task = tasks.poll();
+            int remains;
+            boolean thrown = true;
+            try {
+                task.run();
+                thrown = false;
+            }
+            catch (Exception e) {
+                ErrorRecorder.record("Serial task exception.", e);
+                thrown = false;
+            }
+            finally {
+                remains = queueDepth.decrementAndGet();
+
+                //-- An Error unwinds this thread: hand the remaining tasks to a new slot first.
+                if (thrown && remains > 0)
+                    schedule();
+            }
+
+            if (remains == 0)
+                return;
+
+            executed += 1;
+            if (executed >= limit) {
+                schedule();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.fpnn.sdk;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.security.GeneralSecurityException;
+
+/**
+ * Stream mode receiver: the whole inbound byte stream is one AES-CFB stream.
+ * Bytes are decrypted as they arrive, then framed by a plain PackageReceiver.
+ */
+
+public class StreamEncryptedPackageReceiver implements PackageReceiverInterface {
+
+    private PooledBuffer pooledCipherBuffer;
+    private ByteBuffer cipherBuffer;        //-- null when given back to BufferPool.
+    private volatile int heldBytes;
+    private PackageReceiver framer;
+
+    private KeyGenerator.EncryptionKit encryptKit;
+
+    public StreamEncryptedPackageReceiver(KeyGenerator.EncryptionKit kit) {
+        encryptKit = kit;
+        pooledCipherBuffer = null;
+        cipherBuffer = null;
+        heldBytes = 0;
+        framer = new PackageReceiver();
+    }
+
+    public int heldBufferBytes() {
+        return heldBytes + framer.heldBufferBytes();
+    }
+
+    private void releaseCipherBuffer() {
+        if (pooledCipherBuffer == null)
+            return;
+
+        pooledCipherBuffer.release();
+        pooledCipherBuffer = null;
+        cipherBuffer = null;
+        heldBytes = 0;
+    }
+
+    public void releaseIdleBuffers() {
+        releaseCipherBuffer();
+        framer.releaseIdleBuffers();
+    }
+
+    public void releaseBuffers() {
+        releaseCipherBuffer();
+        framer.releaseBuffers();
+    }
+
+    public void receive(SocketChannel channel, InetSocketAddress peerAddress, PackageReceivedResult result) {
+
+        if (cipherBuffer == null) {
+            pooledCipherBuffer = BufferPool.forIO().acquire(ClientEngine.getReceiveBufferSize());
+            cipherBuffer = pooledCipherBuffer.buffer();
+            heldBytes = cipherBuffer.capacity();
+        }
+
+        int receivedBytes;
+        while (true) {
+
+            cipherBuffer.clear();
+            try {
+                receivedBytes = channel.read(cipherBuffer);
+            } catch (IOException e) {
+                ErrorRecorder.record("Receive data error. Connection will be closed. Channel: " + peerAddress.toString(), e);
+                result.setError(ErrorCode.FPNN_EC_CORE_RECV_ERROR.value());
+                return;
+            }
+
+            if (receivedBytes > 0) {
+
+                cipherBuffer.flip();
+
+                try {
+                    //-- Decrypt in place.
+                    encryptKit.streamDecryptor.update(cipherBuffer.duplicate(), cipherBuffer.duplicate());
+                } catch (GeneralSecurityException e) {
+                    ErrorRecorder.record("Decode received data in stream mode failed. Connection will be closed. Channel: "
+                            + peerAddress.toString(), e);
+                    result.setError(ErrorCode.FPNN_EC_CORE_DECODING.value());
+                    return;
+                }
+
+                if (!framer.consume(cipherBuffer, result, peerAddress))
+                    return;
+
+                if (result.consumeReadBudget(receivedBytes))
+                    return;
+
+            } else {
+                if (receivedBytes == -1)
+                    result.setError(ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value());
+
+                return;
+            }
+        }
+    }
+}
@@ -2,16 +2,18 @@ package com.fpnn.sdk;
 
 import com.fpnn.sdk.proto.Answer;
 
+import java.util.concurrent.CountDownLatch;
+
 public class SyncAnswerCallback extends AnswerCallback {
 
-    private Answer answer;
+    //-- CountDownLatch parks instead of Object.wait(), so virtual threads are not pinned to carrier threads.
+    private volatile Answer answer;
+    private CountDownLatch answeredLatch;
 
     public void onAnswer(Answer answer) {
 
-        synchronized (this) {
-            this.answer = answer;
-            notifyAll();
-        }
+        this.answer = answer;
+        answeredLatch.countDown();
     }
     public void onException(Answer answer, int errorCode) {
 
@@ -20,22 +22,18 @@ public class SyncAnswerCallback extends AnswerCallback {
             answer.fillErrorCode(errorCode);
         }
 
-        synchronized (this) {
-            this.answer = answer;
-            notifyAll();
-        }
+        this.answer = answer;
+        answeredLatch.countDown();
     }
 
     public SyncAnswerCallback() {
         answer = null;
+        answeredLatch = new CountDownLatch(1);
     }
 
     public Answer getAnswer() throws InterruptedException {
 
-        synchronized (this) {
-            while (answer == null)
-                wait();
-        }
+        answeredLatch.await();
         return answer;
     }
 }
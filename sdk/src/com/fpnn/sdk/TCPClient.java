@@ -6,6 +6,9 @@ import com.fpnn.sdk.proto.Quest;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TCPClient {
 
@@ -15,6 +18,11 @@ public class TCPClient {
         Connected
     }
 
+    public enum SendQueueFullPolicy {
+        FailFast,               //-- Quest callback gets FPNN_EC_CORE_WORK_QUEUE_FULL immediately.
+        BlockWithDeadline       //-- Sender waits for space until the deadline, then fails as FailFast.
+    }
+
     //-----------------[ Properties ]-------------------
 
     private InetSocketAddress peerAddress;
@@ -24,15 +32,34 @@ public class TCPClient {
     private volatile ClientStatus status;
     private TCPConnection connection;
 
+    //-- Lock & Condition instead of monitor: waiting connect(true) won't pin virtual threads.
+    private final ReentrantLock lock;
+    private final Condition statusChanged;
+
     private ConnectionConnectedCallback connectedCallback;
     private ConnectionWillCloseCallback connectionWillCloseCallback;
 
-    //-- Server push / Java Reflect
-    private Object questProcessor;
-    private String questProcessorName;      //-- Require full name. e.g. full package name + class name.
+    //-- Server push handlers. Shared by reconnected connections.
+    private final QuestHandlerRegistry handlerRegistry;
 
     private KeyGenerator keyGenerator;
 
+    //-- Ordered callbacks & server pushes
+    private boolean orderedExecution;
+    private int orderedExecutionBatchSize;
+
+    private boolean writeThrough;
+    private boolean lazyPayload;
+
+    //-- Send queue limits & backpressure
+    private long sendQueueMaxBytes;
+    private int sendQueueMaxPackages;
+    private SendQueueFullPolicy sendQueueFullPolicy;
+    private long sendQueueBlockMilliseconds;
+    private long lowWatermark;
+    private long highWatermark;
+    private WritabilityChangedCallback writabilityChangedCallback;
+
     //-----------------[ Constructor Functions ]-------------------
 
     public TCPClient(String host, int port) {
@@ -46,13 +73,29 @@ public class TCPClient {
         status = ClientStatus.Closed;
         connection = null;
 
+        lock = new ReentrantLock();
+        statusChanged = lock.newCondition();
+
         connectedCallback = null;
         connectionWillCloseCallback = null;
 
-        questProcessor = null;
-        questProcessorName = null;
+        handlerRegistry = new QuestHandlerRegistry();
 
         keyGenerator = null;
+
+        orderedExecution = false;
+        orderedExecutionBatchSize = SerialTaskExecutor.defaultBatchSize;
+
+        writeThrough = false;
+        lazyPayload = false;
+
+        sendQueueMaxBytes = 0;
+        sendQueueMaxPackages = 0;
+        sendQueueFullPolicy = SendQueueFullPolicy.FailFast;
+        sendQueueBlockMilliseconds = 0;
+        lowWatermark = 0;
+        highWatermark = 0;
+        writabilityChangedCallback = null;
     }
 
     public static TCPClient create(String host, int port) {
@@ -121,11 +164,127 @@ public class TCPClient {
         if (questProcessor == null || questProcessorFullClassName == null || questProcessorFullClassName.length() == 0)
             return;
 
-        this.questProcessor = questProcessor;
-        this.questProcessorName = questProcessorFullClassName;
+        handlerRegistry.setLegacyProcessor(questProcessor, questProcessorFullClassName);
+    }
+
+    //-- Handlers registered here take precedence over methods of the quest processor. Null handler unregisters.
+    public void registerQuestHandler(String method, QuestHandler handler) {
+        if (method == null || method.length() == 0)
+            return;
+
+        handlerRegistry.register(method, handler);
+    }
+
+    //-- Answer callbacks, server pushes and connection events of one connection run in arrival order.
+    //-- Only effective for connections created after this call.
+    public void setOrderedExecution(boolean ordered) {
+        setOrderedExecution(ordered, SerialTaskExecutor.defaultBatchSize);
+    }
+
+    public void setOrderedExecution(boolean ordered, int batchSize) {
+        orderedExecution = ordered;
+        orderedExecutionBatchSize = batchSize;
+    }
+
+    public boolean isOrderedExecution() {
+        return orderedExecution;
     }
 
-    private boolean enableEncryptorByDerFile(String curve, String keyFilePath, boolean streamMode, boolean reinforce) {
+    public int pendingOrderedTasks() {
+        lock.lock();
+        try {
+            return (connection != null) ? connection.pendingSerialTasks() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //-- Quests & answers are written on the sending thread when the connection is idle, saving a selector hand-off.
+    //-- Only plaintext connections are affected. Only effective for connections created after this call.
+    public void setWriteThrough(boolean enable) {
+        writeThrough = enable;
+    }
+
+    public boolean isWriteThrough() {
+        return writeThrough;
+    }
+
+    //-- Keep received payloads of this client as raw msgpack bytes. See ClientEngine.setLazyPayload().
+    //-- Only effective for connections created after this call.
+    public void setLazyPayload(boolean enable) {
+        lazyPayload = enable;
+    }
+
+    public boolean isLazyPayload() {
+        return lazyPayload;
+    }
+
+    //-- Limits on quests waiting in the send queue. 0 means unlimited.
+    //-- Only effective for connections created after this call.
+    public void setSendQueueLimits(long maxBytes, int maxPackages) {
+        sendQueueMaxBytes = maxBytes;
+        sendQueueMaxPackages = maxPackages;
+    }
+
+    public void setSendQueueFullPolicy(SendQueueFullPolicy policy) {
+        setSendQueueFullPolicy(policy, questTimeout * 1000L, TimeUnit.MILLISECONDS);
+    }
+
+    public void setSendQueueFullPolicy(SendQueueFullPolicy policy, long blockTimeout, TimeUnit unit) {
+        sendQueueFullPolicy = policy;
+        sendQueueBlockMilliseconds = toMillis(blockTimeout, unit);
+        if (sendQueueBlockMilliseconds <= 0)
+            sendQueueBlockMilliseconds = ClientEngine.getQuestTimeout() * 1000L;
+    }
+
+    //-- writable turns false when pending bytes reach highWatermark, and true when they drop to lowWatermark.
+    //-- Only effective for connections created after this call.
+    public void setWritabilityChangedCallback(WritabilityChangedCallback cb, long lowWatermark, long highWatermark) {
+        writabilityChangedCallback = cb;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    public long pendingBytes() {
+        lock.lock();
+        try {
+            return (connection != null) ? connection.pendingBytes() : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isWritable() {
+        lock.lock();
+        try {
+            return (connection != null) ? connection.isWritable() : true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //-- Buffer memory held by current connection. All zero if not connected.
+    public ConnectionMemoryUsage getMemoryUsage() {
+        lock.lock();
+        try {
+            return (connection != null) ? connection.memoryUsage() : new ConnectionMemoryUsage(0, 0, 0, 0, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //-- Read & write budget hits and selector service delay of current connection. All zero if not connected.
+    public ConnectionIOStatistics getIOStatistics() {
+        lock.lock();
+        try {
+            return (connection != null) ? connection.ioStatistics() : new ConnectionIOStatistics(0, 0, 0, 0, 0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //-- streamMode: one AES-CFB stream for the whole connection. reinforce: AES-256 instead of AES-128.
+    public boolean enableEncryptorByDerFile(String curve, String keyFilePath, boolean streamMode, boolean reinforce) {
         try {
             keyGenerator = KeyGenerator.create(curve, keyFilePath, streamMode, reinforce);
             return true;
@@ -136,7 +295,7 @@ public class TCPClient {
         }
     }
 
-    private boolean enableEncryptorByDerData(String curve, byte[] peerPublicKey, boolean streamMode, boolean reinforce) {
+    public boolean enableEncryptorByDerData(String curve, byte[] peerPublicKey, boolean streamMode, boolean reinforce) {
         try {
             keyGenerator = new KeyGenerator(curve, peerPublicKey, streamMode, reinforce);
             return true;
@@ -154,14 +313,24 @@ public class TCPClient {
         return enableEncryptorByDerData(curve, peerPublicKey, false, false);
     }
 
+    //-- Positive timeouts below 1 ms round up to 1 ms: 0 means the default timeout.
+    private static long toMillis(long timeout, TimeUnit unit) {
+        long milliseconds = unit.toMillis(timeout);
+        return (timeout > 0) ? Math.max(1, milliseconds) : milliseconds;
+    }
+
     //-----------------[ Message Methods ]-------------------
     public Answer sendQuest(Quest quest) throws InterruptedException {
         return sendQuest(quest, questTimeout);
     }
 
     public Answer sendQuest(Quest quest, int timeoutInSeconds) throws InterruptedException {
+        return sendQuest(quest, timeoutInSeconds * 1000L, TimeUnit.MILLISECONDS);
+    }
+
+    public Answer sendQuest(Quest quest, long timeout, TimeUnit unit) throws InterruptedException {
         SyncAnswerCallback callback = new SyncAnswerCallback();
-        sendQuest(quest, callback, timeoutInSeconds);
+        sendQuest(quest, callback, timeout, unit);
         return callback.getAnswer();
     }
 
@@ -170,10 +339,15 @@ public class TCPClient {
     }
 
     public void sendQuest(Quest quest, AnswerCallback callback, int timeoutInSeconds) {
+        sendQuest(quest, callback, timeoutInSeconds * 1000L, TimeUnit.MILLISECONDS);
+    }
+
+    public void sendQuest(Quest quest, AnswerCallback callback, long timeout, TimeUnit unit) {
         TCPConnection conn = null;
         boolean needConnect = false;
 
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == ClientStatus.Closed) {
                 if (!autoReconnect) {
                     TCPConnection.runCallback(callback, ErrorCode.FPNN_EC_CORE_INVALID_CONNECTION.value());
@@ -184,6 +358,8 @@ public class TCPClient {
             }
             else
                 conn = connection;
+        } finally {
+            lock.unlock();
         }
 
         if (needConnect) {
@@ -195,14 +371,21 @@ public class TCPClient {
         }
 
         if (conn == null && !needConnect) {
-            synchronized (this) {
+            lock.lock();
+            try {
                 if (status != ClientStatus.Closed)
                     conn = connection;
+            } finally {
+                lock.unlock();
             }
         }
 
+        long timeoutInMilliseconds = toMillis(timeout, unit);
+        if (timeoutInMilliseconds == 0)
+            timeoutInMilliseconds = questTimeout * 1000L;
+
         if (conn != null)
-            conn.sendQuest(quest, callback, (timeoutInSeconds != 0) ? timeoutInSeconds : questTimeout);
+            conn.sendQuest(quest, callback, timeoutInMilliseconds);
         else
             TCPConnection.runCallback(callback, ErrorCode.FPNN_EC_CORE_INVALID_CONNECTION.value());
     }
@@ -211,8 +394,11 @@ public class TCPClient {
         sendQuest(quest, callback, questTimeout);
     }
 
-
     public void sendQuest(Quest quest, FunctionalAnswerCallback callback, int timeoutInSeconds) {
+        sendQuest(quest, callback, timeoutInSeconds * 1000L, TimeUnit.MILLISECONDS);
+    }
+
+    public void sendQuest(Quest quest, FunctionalAnswerCallback callback, long timeout, TimeUnit unit) {
         AnswerCallback standardCallback = new AnswerCallback() {
             @Override
             public void onAnswer(Answer answer) {
@@ -224,14 +410,17 @@ public class TCPClient {
         };
 
         standardCallback.setFuncationalAnswerCallback(callback);
-        sendQuest(quest, standardCallback, timeoutInSeconds);
+        sendQuest(quest, standardCallback, timeout, unit);
     }
 
     //-- Async & Advanced Answer.
     public void sendAnswer(Answer answer) {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (connection != null)
                 connection.sendAnswer(answer);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -292,7 +481,8 @@ public class TCPClient {
     //-----------------[ Optional Methods ]-------------------
 
     private void connectionConnectResult(boolean connected, int hashCode) {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (connected) {
                 if (connection == null || hashCode != connection.hashCode())
                     return;
@@ -304,17 +494,22 @@ public class TCPClient {
                 status = ClientStatus.Closed;
             }
 
-            this.notifyAll();
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
     private void connectionDisconnected(int hashCode) {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (connection == null || hashCode != connection.hashCode())
                 return;
 
             status = ClientStatus.Closed;
-            this.notifyAll();
+            statusChanged.signalAll();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -322,7 +517,8 @@ public class TCPClient {
 
         ClientEngine.startEngine();
 
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == ClientStatus.Connected)
                 return true;
 
@@ -348,7 +544,16 @@ public class TCPClient {
                 connection.setQuestTimeout(questTimeout);
                 connection.setConnectedCallback(openCb);
                 connection.setWillCloseCallback(closeCb);
-                connection.setQuestProcessor(questProcessor, questProcessorName);
+                connection.setQuestHandlerRegistry(handlerRegistry);
+
+                if (orderedExecution)
+                    connection.setSerialExecutor(new SerialTaskExecutor(orderedExecutionBatchSize));
+
+                long blockMilliseconds = (sendQueueFullPolicy == SendQueueFullPolicy.BlockWithDeadline) ? sendQueueBlockMilliseconds : 0;
+                connection.setWriteThrough(writeThrough);
+                connection.setLazyPayload(lazyPayload);
+                connection.setSendQueueLimits(sendQueueMaxBytes, sendQueueMaxPackages, blockMilliseconds);
+                connection.setSendQueueWatermarks(lowWatermark, highWatermark, writabilityChangedCallback);
 
                 boolean connStatus;
                 try {
@@ -371,9 +576,11 @@ public class TCPClient {
                 return true;
 
             while (status == ClientStatus.Connecting)
-                this.wait();
+                statusChanged.await();
 
             return status == ClientStatus.Connected;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -383,7 +590,8 @@ public class TCPClient {
     }
 
     public void close() {
-        synchronized (this) {
+        lock.lock();
+        try {
             if (status == ClientStatus.Closed)
                 return;
 
@@ -392,8 +600,10 @@ public class TCPClient {
                 connection = null;
                 status = ClientStatus.Closed;
 
-                this.notifyAll();
+                statusChanged.signalAll();
             }
+        } finally {
+            lock.unlock();
         }
     }
 }
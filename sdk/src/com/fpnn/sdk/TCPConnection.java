@@ -4,13 +4,17 @@ import com.fpnn.sdk.proto.Answer;
 import com.fpnn.sdk.proto.Quest;
 
 import java.io.IOException;
-import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created by shiwangxing on 2017/11/29.
@@ -18,39 +22,89 @@ import java.util.*;
 
 class TCPConnection {
 
+    static final int noPendingInterestOps = -1;
+    private static final int encryptBufferInitSize = 16 * 1024;
+
     private volatile boolean connected;   //-- Pls Note: this filed can be visited without synchronized block in same case, but in other case MUST be visited in synchronized block.
     private SocketChannel channel;
     private InetSocketAddress peerAddress;
+    private volatile ClientEngineCore engineCore;
+    private SelectionKey selectionKey;              //-- Only be visited in engine core thread.
+    private AtomicInteger pendingInterestOps;
+    private SerialTaskExecutor serialExecutor;      //-- null: callbacks & pushes run unordered in engine thread pool.
     private boolean connectionClosed;
     private boolean connectedCallbackCalled;
     private ConnectionConnectedCallback connectedCallback;
     private ConnectionWillCloseCallback connectionWillCloseCallback;
 
-    //-- Server push / Java Reflect
-    private Object questProcessor;
-    private String questProcessorName;      //-- Require full name. e.g. full package name + class name.
-    private HashMap<String, Method> questProcessorMethodsMap;
+    //-- Server push handlers
+    private QuestHandlerRegistry handlerRegistry;
 
-    //-- Quest callbacks Maps
-    private TreeMap<Long, Set<AnswerCallback>> callbackTimeoutMap;
-    private TreeMap<Integer, AnswerCallback> callbackSeqNumMap;
+    //-- Quest callbacks Map. Timeouts are tracked by ClientEngine's QuestTimeoutWheel.
+    private IntCallbackMap callbackSeqNumMap;
 
     //-- IO Operations &Operators
-    private LinkedList<ByteBuffer> sendQueue;
+    private LinkedList<PooledBuffer> sendQueue;          //-- Buffers are from BufferPool, released after written.
     private PackageReceiverInterface receiver;
+    private PackageReceivedResult receivedResult;      //-- Reused by each read. Only be visited in engine core thread.
+    private long lastReceiveNanos;                     //-- Only be visited in engine core thread.
     private int cachedErrorCode;
 
     private int questTimeout;
-    private boolean keyExchanged;
-    private ByteBuffer currentSendingBuffer;
+    private PooledBuffer keyExchangeBuffer;
+
+    //-- Send queue limits & backpressure. Guarded by synchronized (this). 0 means unlimited or disabled.
+    private long sendQueueMaxBytes;
+    private int sendQueueMaxPackages;
+    private long lowWatermark;
+    private long highWatermark;
+    private long sendQueueBlockMilliseconds;       //-- 0: fail fast when the send queue is full.
+    private long pendingBytes;                  //-- Queued bytes, and bytes of the write batch not written yet.
+    private boolean writable;
+    private WritabilityChangedCallback writabilityChangedCallback;
+    private SerialTaskExecutor writabilityExecutor;     //-- Created on first change when callbacks run unordered.
+
+    //-- Senders blocked by a full send queue park on their own lock, not on this connection's monitor,
+    //-- so virtual threads are not pinned, and the selector & dispatch paths don't contend with them.
+    private final ReentrantLock sendSpaceLock;
+    private final Condition sendSpaceChanged;
+    private long sendSpaceSignals;              //-- Guarded by sendSpaceLock. Counts space changes, so no wakeup is lost.
+    private final AtomicInteger blockedSenders;
+
+    //-- Gathering write batch. Only be visited in engine core thread.
+    private ByteBuffer[] writeBatch;
+    private PooledBuffer[] writeBatchOwners;    //-- Released when the buffer at the same index is written.
+    private int writeBatchBegin;
+    private int writeBatchEnd;
+    private long batchPendingBytes;             //-- Bytes of the write batch still counted in pendingBytes.
+    private boolean writingKeyExchange;
+    private PooledBuffer pooledEncryptBuffer;
+    private ByteBuffer encryptBuffer;           //-- Package mode ciphertext of the write batch.
+    private volatile int encryptBufferBytes;
+
+    //-- Write-through: senders write on their own thread when the selector has nothing to send.
+    private boolean writeThrough;
+    private boolean selectorWriting;        //-- Guarded by synchronized (this). Write batch may be not empty.
     private KeyGenerator.EncryptionKit encryptionKit;
 
+    //-- Fair I/O budgets. Only written in engine core thread.
+    private int carriedOverOps;             //-- Ready ops left by the budgets. Served again in the next loop.
+    private volatile long ioEvents;
+    private volatile long readBudgetHits;
+    private volatile long writeBudgetHits;
+    private volatile long totalServiceDelayNanos;
+    private volatile long maxServiceDelayNanos;
+
     //-----------------[ Constructor Functions ]-------------------
 
     public TCPConnection(InetSocketAddress remote) {
         connected = false;
         channel = null;
         peerAddress = remote;
+        engineCore = null;
+        selectionKey = null;
+        pendingInterestOps = new AtomicInteger(noPendingInterestOps);
+        serialExecutor = null;
 
         connectionClosed = false;
         connectedCallbackCalled = false;
@@ -58,20 +112,53 @@ class TCPConnection {
         connectedCallback = null;
         connectionWillCloseCallback = null;
 
-        questProcessor = null;
-        questProcessorName = null;
-        questProcessorMethodsMap = null;
+        handlerRegistry = null;
 
-        callbackTimeoutMap = new TreeMap<>();
-        callbackSeqNumMap = new TreeMap<>();
+        callbackSeqNumMap = new IntCallbackMap();
         sendQueue = new LinkedList<>();
         receiver = new PackageReceiver();
+        receivedResult = new PackageReceivedResult();
+        if (ClientEngine.isDecodePipeline())
+            receivedResult.setDecodePipeline(new DecodePipeline(this));
+        lastReceiveNanos = System.nanoTime();
         cachedErrorCode = ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value();
 
         questTimeout = 0;
-        keyExchanged = false;
-        currentSendingBuffer = null;
+        keyExchangeBuffer = null;
+
+        sendQueueMaxBytes = 0;
+        sendQueueMaxPackages = 0;
+        lowWatermark = 0;
+        highWatermark = 0;
+        sendQueueBlockMilliseconds = 0;
+        pendingBytes = 0;
+        writable = true;
+        writabilityExecutor = null;
+        sendSpaceLock = new ReentrantLock();
+        sendSpaceChanged = sendSpaceLock.newCondition();
+        sendSpaceSignals = 0;
+        blockedSenders = new AtomicInteger(0);
+        writabilityChangedCallback = null;
+
+        writeBatch = new ByteBuffer[ClientEngine.getMaxGatheringWriteBuffers()];
+        writeBatchOwners = new PooledBuffer[writeBatch.length];
+        writeBatchBegin = 0;
+        writeBatchEnd = 0;
+        batchPendingBytes = 0;
+        writingKeyExchange = false;
+        pooledEncryptBuffer = null;
+        encryptBuffer = null;
+
+        writeThrough = false;
+        selectorWriting = false;
         encryptionKit = null;
+
+        carriedOverOps = 0;
+        ioEvents = 0;
+        readBudgetHits = 0;
+        writeBudgetHits = 0;
+        totalServiceDelayNanos = 0;
+        maxServiceDelayNanos = 0;
     }
 
     //-----------------[ Properties methods ]-------------------
@@ -80,6 +167,30 @@ class TCPConnection {
         return channel;
     }
 
+    public InetSocketAddress getPeerAddress() {
+        return peerAddress;
+    }
+
+    ClientEngineCore getEngineCore() {
+        return engineCore;
+    }
+
+    void setEngineCore(ClientEngineCore core) {
+        engineCore = core;
+    }
+
+    SelectionKey getSelectionKey() {
+        return selectionKey;
+    }
+
+    void setSelectionKey(SelectionKey key) {
+        selectionKey = key;
+    }
+
+    int swapPendingInterestOps(int ops) {
+        return pendingInterestOps.getAndSet(ops);
+    }
+
     public void setConnectedCallback(ConnectionConnectedCallback cb) {
         connectedCallback = cb;
     }
@@ -92,35 +203,123 @@ class TCPConnection {
         if (questProcessor == null || questProcessorFullClassName == null || questProcessorFullClassName.length() == 0)
             return;
 
-        this.questProcessor = questProcessor;
-        this.questProcessorName = questProcessorFullClassName;
+        if (handlerRegistry == null)
+            handlerRegistry = new QuestHandlerRegistry();
+
+        handlerRegistry.setLegacyProcessor(questProcessor, questProcessorFullClassName);
+    }
 
-        if (questProcessorMethodsMap == null)
-            questProcessorMethodsMap = new HashMap<>();
+    //-- Only effective before connect().
+    void setQuestHandlerRegistry(QuestHandlerRegistry registry) {
+        handlerRegistry = registry;
     }
 
     public void setQuestTimeout(int timeout) {
         questTimeout = timeout;
     }
 
-    public void setEncryptionKit(KeyGenerator.EncryptionKit kit) {
-        encryptionKit = kit;
+    //-- Only effective before connect().
+    public void setSerialExecutor(SerialTaskExecutor executor) {
+        serialExecutor = executor;
+    }
 
-        if (!kit.streamMode)
-            receiver = new EncryptedPackageReceiver(kit);
-        else
-            throw new RuntimeException("Current FPNN don't support stream encrypt & decrypt in Java.");
+    public int pendingSerialTasks() {
+        return (serialExecutor != null) ? serialExecutor.queueDepth() : 0;
+    }
+
+    //-- Only effective before connect().
+    public void setSendQueueLimits(long maxBytes, int maxPackages, long blockMilliseconds) {
+        sendQueueMaxBytes = (maxBytes > 0) ? maxBytes : 0;
+        sendQueueMaxPackages = (maxPackages > 0) ? maxPackages : 0;
+        sendQueueBlockMilliseconds = (blockMilliseconds > 0) ? blockMilliseconds : 0;
+    }
+
+    //-- Only effective before connect(). highWatermark 0 disables writability events.
+    public void setSendQueueWatermarks(long lowWatermark, long highWatermark, WritabilityChangedCallback cb) {
+        this.highWatermark = (highWatermark > 0) ? highWatermark : 0;
+        this.lowWatermark = Math.max(0, Math.min(lowWatermark, this.highWatermark));
+        writabilityChangedCallback = cb;
+    }
+
+    //-- Only effective before connect(). Only plaintext connections write through.
+    public void setWriteThrough(boolean enable) {
+        writeThrough = enable;
+    }
+
+    //-- Only effective before connect().
+    public void setLazyPayload(boolean enable) {
+        receivedResult.setLazyPayload(enable);
+    }
+
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public synchronized boolean isWritable() {
+        return writable;
     }
 
-    public long getNextTimeoutMillis() {
+    public ConnectionMemoryUsage memoryUsage() {
+        long queueBytes;
+        int queuePackages;
+        int callbacks;
         synchronized (this) {
-            if (callbackTimeoutMap.size() == 0)
-                return 0;
+            queueBytes = pendingBytes;
+            queuePackages = sendQueue.size();
+            callbacks = callbackSeqNumMap.size();
+        }
+        return new ConnectionMemoryUsage(receiver.heldBufferBytes(), queueBytes, queuePackages, encryptBufferBytes, callbacks);
+    }
+
+    public ConnectionIOStatistics ioStatistics() {
+        return new ConnectionIOStatistics(ioEvents, readBudgetHits, writeBudgetHits,
+                totalServiceDelayNanos, maxServiceDelayNanos);
+    }
+
+    /* Only be called by ClientEngineCore. Release buffers if no data received for idleNanos. */
+    void releaseIdleBuffers(long nowNanos, long idleNanos) {
+        if (nowNanos - lastReceiveNanos < idleNanos)
+            return;
+
+        receiver.releaseIdleBuffers();
+
+        if (encryptBuffer != null && writeBatchBegin == writeBatchEnd)
+            releaseEncryptBuffer();
+    }
 
-            return callbackTimeoutMap.firstKey();
+    /* Only be called by engine core thread. */
+    private void releaseEncryptBuffer() {
+        if (pooledEncryptBuffer != null) {
+            pooledEncryptBuffer.release();
+            pooledEncryptBuffer = null;
+            encryptBuffer = null;
+            encryptBufferBytes = 0;
         }
     }
 
+    /* Only be called by engine core thread. */
+    private void releaseWriteBatch() {
+        for (int i = writeBatchBegin; i < writeBatchEnd; i++) {
+            if (writeBatchOwners[i] != null) {
+                writeBatchOwners[i].release();
+                writeBatchOwners[i] = null;
+            }
+            writeBatch[i] = null;
+        }
+        writeBatchBegin = 0;
+        writeBatchEnd = 0;
+        batchPendingBytes = 0;
+    }
+
+    public void setEncryptionKit(KeyGenerator.EncryptionKit kit) {
+        encryptionKit = kit;
+
+        if (!kit.streamMode)
+            receiver = new EncryptedPackageReceiver(kit);
+        else
+            receiver = new StreamEncryptedPackageReceiver(kit);
+    }
+
     //-----------------[ Static Run Answer Callback ]-------------------
 
     static void runCallback(AnswerCallback callback, int errorCode) {
@@ -133,50 +332,223 @@ class TCPConnection {
                 });
     }
 
-    private static void runCallback(AnswerCallback callback, Answer answer) {
-        ClientEngine.getThreadPool().execute(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        callback.fillResult(answer, answer.getErrorCode());
-                    }
-                });
-    }
+    //-----------------[ Run Tasks & Callbacks in Connection Order ]-------------------
 
-    //-----------------[ Process timeout quests methods ]-------------------
+    private void execute(Runnable task) {
+        if (serialExecutor != null)
+            serialExecutor.execute(task);
+        else
+            ClientEngine.getThreadPool().execute(task);
+    }
 
-    public void checkTimeoutCallbacks() {
+    //-- SyncAnswerCallback only wakes the waiting thread. Filling it in place saves a hand-off,
+    //-- and prevents a blocked ordered task from waiting for a callback queued behind itself.
+    private static boolean canFillInPlace(AnswerCallback callback) {
+        return callback.getClass() == SyncAnswerCallback.class;
+    }
 
-        ArrayList<Long> timeoutKeys = new ArrayList<>();
-        ArrayList<Set<AnswerCallback>> timeoutAnswerSets = new ArrayList<>();
+    private void executeCallback(AnswerCallback callback, int errorCode) {
+        if (canFillInPlace(callback)) {
+            callback.fillResult(null, errorCode);
+            return;
+        }
 
-        long current = System.currentTimeMillis();
-        synchronized (this) {
-            for (Long timeout : callbackTimeoutMap.keySet()) {
-                if (timeout <= current) {
-                    timeoutKeys.add(timeout);
-                    timeoutAnswerSets.add(callbackTimeoutMap.get(timeout));
-                }
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.fillResult(null, errorCode);
             }
+        });
+    }
 
-            for (Long timeout : timeoutKeys) {
-                callbackTimeoutMap.remove(timeout);
+    private void executeCallback(AnswerCallback callback, Answer answer) {
+        if (canFillInPlace(callback)) {
+            callback.fillResult(answer, answer.getErrorCode());
+            return;
+        }
+
+        execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.fillResult(answer, answer.getErrorCode());
             }
+        });
+    }
 
-            for (Set<AnswerCallback> answerSet: timeoutAnswerSets) {
-                for (AnswerCallback callback : answerSet) {
-                    callbackSeqNumMap.remove(callback.getSeqNum());
-                }
+    //-----------------[ Process timeout quests methods ]-------------------
+
+    /* Only be called by QuestTimeoutWheel. */
+    void expireCallback(AnswerCallback callback) {
+        synchronized (this) {
+            int seqNum = callback.getSeqNum();
+            if (callbackSeqNumMap.get(seqNum) != callback)
+                return;
+
+            callbackSeqNumMap.remove(seqNum);
+        }
+
+        executeCallback(callback, ErrorCode.FPNN_EC_CORE_TIMEOUT.value());
+    }
+
+    //-----------------[ Send Queue & Backpressure ]-------------------
+
+    //-- MUST call synchronized (this) outside.
+    private void notifyWritabilityChanged(boolean status) {
+        WritabilityChangedCallback cb = writabilityChangedCallback;
+        if (cb == null)
+            return;
+
+        //-- Changes are delivered in order even without ordered execution, so the last one
+        //-- delivered is always the current state.
+        Executor executor = serialExecutor;
+        if (executor == null) {
+            if (writabilityExecutor == null)
+                writabilityExecutor = new SerialTaskExecutor();
+
+            executor = writabilityExecutor;
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                cb.writabilityChanged(peerAddress, status);
             }
+        });
+    }
+
+    //-- MUST call synchronized (this) outside.
+    private boolean sendQueueFull(int size) {
+        //-- A package larger than the byte limit still can be sent when the queue is empty.
+        if (sendQueue.size() == 0)
+            return false;
+
+        if (sendQueueMaxPackages > 0 && sendQueue.size() >= sendQueueMaxPackages)
+            return true;
+
+        return sendQueueMaxBytes > 0 && pendingBytes + size > sendQueueMaxBytes;
+    }
+
+    //-- MUST call synchronized (this) outside, after blockedSenders is increased.
+    //-- Return the space change count, for awaitSendQueueSpace().
+    private long sendSpaceSignals() {
+        sendSpaceLock.lock();
+        try {
+            return sendSpaceSignals;
         }
+        finally {
+            sendSpaceLock.unlock();
+        }
+    }
+
+    //-- MUST call synchronized (this) outside.
+    private void signalSendQueueSpace() {
+        if (blockedSenders.get() == 0)
+            return;
+
+        sendSpaceLock.lock();
+        try {
+            sendSpaceSignals += 1;
+            sendSpaceChanged.signalAll();
+        }
+        finally {
+            sendSpaceLock.unlock();
+        }
+    }
 
-        for (Set<AnswerCallback> answerSet: timeoutAnswerSets) {
-            for (AnswerCallback callback : answerSet) {
-                runCallback(callback, ErrorCode.FPNN_EC_CORE_TIMEOUT.value());
+    /*
+        MUST NOT call in synchronized (this).
+        Wait until the send queue changes after signals was read, or the deadline passes.
+        Return false if the deadline passed or the thread is interrupted.
+    */
+    private boolean awaitSendQueueSpace(long signals, long deadline) {
+        sendSpaceLock.lock();
+        try {
+            while (sendSpaceSignals == signals) {
+                long remains = deadline - System.nanoTime();
+                if (remains <= 0)
+                    return false;
+
+                sendSpaceChanged.awaitNanos(remains);
             }
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally {
+            sendSpaceLock.unlock();
+            blockedSenders.decrementAndGet();
         }
     }
 
+    /*
+        MUST call synchronized (this) outside.
+        Try writing on the caller thread. Only allowed when nothing is queued and the selector is not writing,
+        so the bytes can't overtake earlier packages. Return false if bytes left, which MUST be queued then.
+    */
+    private boolean tryWriteThrough(PooledBuffer pooled) {
+        if (!writeThrough || !connected || connectionClosed || encryptionKit != null)
+            return false;
+
+        if (selectorWriting || sendQueue.size() > 0)
+            return false;
+
+        ByteBuffer buffer = pooled.buffer();
+        try {
+            channel.write(buffer);
+        }
+        catch (IOException e) {
+            //-- Leave it to the selector thread: it will meet the same error and close the connection.
+            return false;
+        }
+
+        if (buffer.hasRemaining())
+            return false;
+
+        pooled.release();
+        return true;
+    }
+
+    //-- MUST call synchronized (this) outside.
+    private void enqueueSendingBuffer(PooledBuffer buffer) {
+        sendQueue.add(buffer);
+        pendingBytes += buffer.buffer().remaining();
+
+        if (writable && highWatermark > 0 && pendingBytes >= highWatermark) {
+            writable = false;
+            notifyWritabilityChanged(false);
+        }
+    }
+
+    //-- MUST call synchronized (this) outside.
+    private void sendQueueDrained(long bytes) {
+        pendingBytes -= bytes;
+
+        if (!writable && pendingBytes <= lowWatermark) {
+            writable = true;
+            notifyWritabilityChanged(true);
+        }
+
+        signalSendQueueSpace();
+    }
+
+    //-- MUST call synchronized (this) outside.
+    private void clearSendQueue() {
+        for (PooledBuffer buffer : sendQueue)
+            buffer.release();
+
+        sendQueue.clear();
+
+        if (keyExchangeBuffer != null) {
+            keyExchangeBuffer.release();
+            keyExchangeBuffer = null;
+        }
+        pendingBytes = 0;
+
+        signalSendQueueSpace();
+    }
+
     //-----------------[ Connection events methods ]-------------------
 
     public boolean connect() throws IOException {
@@ -215,7 +587,7 @@ class TCPConnection {
             }
         };
 
-        sendQuest(quest, callback, questTimeout, true);
+        sendQuest(quest, callback, questTimeout * 1000L, true);
     }
 
     private void afterKeyExchanged(boolean succeed) {
@@ -238,7 +610,7 @@ class TCPConnection {
                     interestEvents |= SelectionKey.OP_WRITE;
             }
 
-            ClientEngine.changeChannelInterestedEvent(channel, interestEvents);
+            ClientEngine.changeChannelInterestedEvent(this, interestEvents);
         }
         else {
             if (connectedCallback != null)
@@ -246,7 +618,7 @@ class TCPConnection {
 
             synchronized (this) {
                 clearAllCallback(ErrorCode.FPNN_EC_CORE_INVALID_CONNECTION.value());
-                sendQueue.clear();
+                clearSendQueue();
             }
         }
     }
@@ -267,7 +639,7 @@ class TCPConnection {
 
     public void processConnectedEvent(boolean succeed) {
         final boolean status = succeed;
-        ClientEngine.getThreadPool().execute(new Runnable() {
+        execute(new Runnable() {
             @Override
             public void run() {
                 connectionConnected(status);
@@ -296,10 +668,10 @@ class TCPConnection {
         synchronized (this) {
             connectionClosed = true;
             clearAllCallback(errorCode);
-            sendQueue.clear();
+            clearSendQueue();
         }
 
-        ClientEngine.getThreadPool().execute(new Runnable() {
+        execute(new Runnable() {
             @Override
             public void run() {
                 connectionWillClose();
@@ -309,76 +681,129 @@ class TCPConnection {
 
     //-----------------[ I/O Processing methods ]-------------------
 
-    /* Only be called by sendData(). */
-    private boolean prepareSendingBuffer() {
-        if (encryptionKit.streamMode) {
-            byte[] ciphertext = encryptionKit.encryptor.update(currentSendingBuffer.array());
-            if (ciphertext == null) {
-                ErrorRecorder.record("Prepare sending buffer in stream mode failed. encryptor.update() return null.");
-                return false;
+    /* Only be called by encryptWriteBatch(). */
+    private ByteBuffer prepareEncryptBuffer(int size) {
+        int capacity = (encryptBuffer != null) ? encryptBuffer.capacity() : 0;
+
+        //-- Grow for big batches, and give back the memory grown for a huge package.
+        if (capacity < size || capacity > 4 * Math.max(size, encryptBufferInitSize)) {
+            releaseEncryptBuffer();
+
+            BufferPool pool = ClientEngine.isDirectEncryptBuffer() ? BufferPool.direct() : BufferPool.forIO();
+            pooledEncryptBuffer = pool.acquire(Math.max(size, encryptBufferInitSize));
+            encryptBuffer = pooledEncryptBuffer.buffer();
+            encryptBuffer.order(ByteOrder.LITTLE_ENDIAN);
+            encryptBufferBytes = encryptBuffer.capacity();
+        }
+
+        encryptBuffer.clear();
+        return encryptBuffer;
+    }
+
+    /* Only be called by fillWriteBatch(). Encrypt writeBatch[0, count). */
+    private boolean encryptWriteBatch(int count, long batchBytes) {
+        try {
+            if (encryptionKit.streamMode) {
+                //-- CFB keeps the length. Encrypt in place: queued buffers are owned by this connection.
+                for (int i = 0; i < count; i++)
+                    encryptionKit.streamEncryptor.update(writeBatch[i].duplicate(), writeBatch[i].duplicate());
+
+                return true;
             }
 
-            ByteBuffer buffer = ByteBuffer.allocate(ciphertext.length);
-            buffer.clear();
+            //-- Package mode: [4 bytes length + ciphertext] of all packages, encrypted into one reusable buffer.
+            ByteBuffer buffer = prepareEncryptBuffer((int) (batchBytes + 4L * count));
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(writeBatch[i].remaining());
+                encryptionKit.encryptor.doFinal(writeBatch[i], buffer);
+                writeBatch[i] = null;
+                writeBatchOwners[i].release();
+                writeBatchOwners[i] = null;
+            }
 
-            buffer.put(ciphertext);
             buffer.flip();
-            currentSendingBuffer = buffer;
+            writeBatch[0] = buffer;     //-- Owned by the connection. Not released per write.
+            writeBatchEnd = 1;
             return true;
         }
-        else {
-            byte[] ciphertext;
-            try {
-                ciphertext = encryptionKit.encryptor.doFinal(currentSendingBuffer.array());
-                if (ciphertext == null) {
-                    ErrorRecorder.record("Prepare sending buffer in package mode failed. encryptor.doFinal() return null.");
-                    return false;
-                }
-            } catch (GeneralSecurityException e) {
-                ErrorRecorder.record("Prepare sending buffer in package mode failed.", e);
-                return false;
-            }
+        catch (GeneralSecurityException e) {
+            ErrorRecorder.record("Encrypt sending data failed. Stream mode: " + encryptionKit.streamMode
+                    + ". Channel: " + peerAddress.toString(), e);
+            return false;
+        }
+    }
 
-            byte[] packageHeader = new byte[4];
+    /*
+        Only be called by sendData().
+        Moves queued packages into the write batch, bounded by the gathering limits.
+        Returns false if encrypting failed. An empty batch means nothing to send.
+    */
+    private boolean fillWriteBatch() {
 
-            packageHeader[0] = (byte) (ciphertext.length & 0xFF);
-            packageHeader[1] = (byte) ((ciphertext.length >> 8) & 0xFF);
-            packageHeader[2] = (byte) ((ciphertext.length >> 16) & 0xFF);
-            packageHeader[3] = (byte) ((ciphertext.length >> 24) & 0xFF);
+        int maxBuffers = writeBatch.length;
+        long maxBytes = ClientEngine.getMaxGatheringWriteBytes();
+        long batchBytes = 0;
+        int count = 0;
 
-            ByteBuffer buffer = ByteBuffer.allocate(4 + ciphertext.length);
-            buffer.clear();
+        synchronized (this) {
+            if (keyExchangeBuffer != null) {
+                writeBatch[0] = keyExchangeBuffer.buffer();
+                writeBatchOwners[0] = keyExchangeBuffer;
+                keyExchangeBuffer = null;
+                writeBatchBegin = 0;
+                writeBatchEnd = 1;
+                writingKeyExchange = true;
+                return true;
+            }
 
-            buffer.put(packageHeader);
-            buffer.put(ciphertext);
-            buffer.flip();
-            currentSendingBuffer = buffer;
-            return true;
+            while (count < maxBuffers && sendQueue.size() > 0) {
+                PooledBuffer pooled = sendQueue.getFirst();
+                ByteBuffer buffer = pooled.buffer();
+                if (count > 0 && batchBytes + buffer.remaining() > maxBytes)
+                    break;
+
+                sendQueue.remove();
+                writeBatchOwners[count] = pooled;
+                writeBatch[count++] = buffer;
+                batchBytes += buffer.remaining();
+            }
+
+            //-- MUST in lock: or the OP_WRITE requested by a concurrent sender may be overwritten.
+            selectorWriting = (count > 0);
+            if (count == 0)
+                ClientEngine.changeChannelInterestedEvent(this, SelectionKey.OP_READ);
         }
+
+        //-- Still counted in pendingBytes until written. See sendData().
+        batchPendingBytes = batchBytes;
+        writeBatchBegin = 0;
+        writeBatchEnd = count;
+
+        if (encryptionKit != null && count > 0)
+            return encryptWriteBatch(count, batchBytes);
+
+        return true;
     }
+
     /* Only be called by processIOEvent(). */
     private boolean sendData() {
 
-        while (true) {
-            if (currentSendingBuffer == null || !currentSendingBuffer.hasRemaining()) {
-                synchronized (this) {
-                    if (sendQueue.size() == 0) {
-                        currentSendingBuffer = null;
-                        ClientEngine.changeChannelInterestedEvent(channel, SelectionKey.OP_READ);
-                        return true;
-                    }
+        int writeBudget = ClientEngine.getWriteBudgetBytes();
+        long writtenBytes = 0;
 
-                    currentSendingBuffer = sendQueue.getFirst();
-                    sendQueue.remove();
-                }
+        while (true) {
+            if (writeBatchBegin == writeBatchEnd) {
+                if (!fillWriteBatch())
+                    return false;
 
-                if (encryptionKit != null)
-                    if (!prepareSendingBuffer())
-                        return false;
+                if (writeBatchBegin == writeBatchEnd)
+                    return true;
             }
 
+            long written;
             try {
-                channel.write(currentSendingBuffer);
+                written = channel.write(writeBatch, writeBatchBegin, writeBatchEnd - writeBatchBegin);
+                writtenBytes += written;
             }
             catch (IOException e) {
                 ErrorRecorder.record("Send data error. Connection will be closed. Channel: " + peerAddress.toString(), e);
@@ -386,70 +811,108 @@ class TCPConnection {
                 return false;
             }
 
-            if (currentSendingBuffer.hasRemaining())
-                return true;
-            else {
-                currentSendingBuffer = null;
-                if (!keyExchanged) {
-                    keyExchanged = true;
-                    //-- Stop send until connected event is called.
-                    ClientEngine.changeChannelInterestedEvent(channel, SelectionKey.OP_READ);
-                    return true;
+            while (writeBatchBegin < writeBatchEnd && !writeBatch[writeBatchBegin].hasRemaining()) {
+                writeBatch[writeBatchBegin] = null;
+                if (writeBatchOwners[writeBatchBegin] != null) {
+                    writeBatchOwners[writeBatchBegin].release();
+                    writeBatchOwners[writeBatchBegin] = null;
+                }
+                writeBatchBegin += 1;
+            }
+
+            //-- Package mode ciphertext is a bit longer than the queued packages: the rest is drained at the batch end.
+            long drained = (writeBatchBegin == writeBatchEnd) ? batchPendingBytes : Math.min(written, batchPendingBytes);
+            if (drained > 0) {
+                batchPendingBytes -= drained;
+                synchronized (this) {
+                    sendQueueDrained(drained);
                 }
             }
+
+            //-- Partial write: socket buffer is full. Continue when OP_WRITE is ready.
+            if (writeBatchBegin < writeBatchEnd)
+                return true;
+
+            writeBatchBegin = 0;
+            writeBatchEnd = 0;
+
+            if (writingKeyExchange) {
+                writingKeyExchange = false;
+                //-- Stop send until connected event is called.
+                ClientEngine.changeChannelInterestedEvent(this, SelectionKey.OP_READ);
+                return true;
+            }
+
+            //-- Leave the rest of the send queue to the next loop, after the other ready connections.
+            if (writeBudget > 0 && writtenBytes >= writeBudget) {
+                carriedOverOps |= SelectionKey.OP_WRITE;
+                writeBudgetHits += 1;
+                return true;
+            }
         }
     }
 
     /* Only be called by processIOEvent(). */
     private boolean recvData() {
-        PackageReceivedResult result = receiver.receive(channel, peerAddress);
-        result.processPackage();
+        PackageReceivedResult result = receivedResult;
+        result.setQuestHandlerRegistry(handlerRegistry);
+        result.setReadBudget(ClientEngine.getReadBudgetBytes(), ClientEngine.getReadBudgetPackages());
+        lastReceiveNanos = System.nanoTime();
+        try {
+            receiver.receive(channel, peerAddress, result);
+            if (result.success && result.isReadBudgetExhausted()) {
+                carriedOverOps |= SelectionKey.OP_READ;
+                readBudgetHits += 1;
+            }
+            return processReceivedResult(result);
+        }
+        finally {
+            result.reset();
+        }
+    }
+
+    //-- Called by engine core thread, or by decode pipeline in arrival order.
+    void dispatchPackages(PackageReceivedResult result) {
 
-        LinkedList<Answer> answerList = result.getAnswerList();
+        ArrayList<Answer> answerList = result.getAnswerList();
 
-        if (answerList != null) {
+        if (!answerList.isEmpty()) {
+            QuestTimeoutWheel timeoutWheel = ClientEngine.getTimeoutWheel();
             synchronized (this) {
                 for (Answer answer: answerList) {
                     int key = answer.getSeqNum();
-                    AnswerCallback callback = callbackSeqNumMap.get(key);
+                    AnswerCallback callback = callbackSeqNumMap.remove(key);
                     if (callback != null) {
-                        callbackSeqNumMap.remove(key);
-
-                        long callbackTimeoutTime = callback.getTimeoutTime();
-                        Set<AnswerCallback> answerSet = callbackTimeoutMap.get(callbackTimeoutTime);
-                        if (answerSet != null) {
-                            answerSet.remove(callback);
-                            if (answerSet.size() == 0)
-                                callbackTimeoutMap.remove(callbackTimeoutTime);
-                        }
+                        timeoutWheel.cancel(callback);
 
-                        runCallback(callback, answer);
+                        executeCallback(callback, answer);
                     }
-                    else
+                    else if (!connectionClosed)
                         ErrorRecorder.record("Cannot find callback for answer. SeqNum is " + answer.getSeqNum());
                 }
             }
         }
 
-        if (result.errorCode != ErrorCode.FPNN_EC_OK.value()) {
-            cachedErrorCode = result.errorCode;
-            return false;
+        if (result.success) {
+            for (Quest quest: result.getQuestList())
+                processQuest(quest);
         }
+    }
 
-        if  (result.success) {
-            LinkedList<Quest> questList = result.getQuestList();
+    private boolean processReceivedResult(PackageReceivedResult result) {
 
-            if (questList != null) {
-                for (Quest quest: questList)
-                    processQuest(quest);
-            }
+        dispatchPackages(result);
 
-            return true;
+        if (result.errorCode != ErrorCode.FPNN_EC_OK.value()) {
+            cachedErrorCode = result.errorCode;
+            return false;
         }
-        else {
+
+        if (!result.success) {
             cachedErrorCode = ErrorCode.FPNN_EC_CORE_UNKNOWN_ERROR.value();
             return false;
         }
+        return true;
     }
 
     //-----------------[ Server push methods ]-------------------
@@ -468,15 +931,15 @@ class TCPConnection {
         return answer;
     }
 
-    private void runQuestProcessor(Method method, Quest quest) {
-        ClientEngine.getThreadPool().execute(
+    private void runQuestHandler(QuestHandler handler, Quest quest) {
+        execute(
                 new Runnable() {
                     @Override
                     public void run() {
                         Answer answer;
                         try {
-                            answer = (Answer) method.invoke(questProcessor, quest, peerAddress);
-                        } catch (ReflectiveOperationException e) {
+                            answer = handler.process(quest, peerAddress);
+                        } catch (Exception e) {
 
                             answer = buildErrorAnswerAndRecordError(quest,
                                     "Process quest(method: " + quest.method() + ") exception.",
@@ -489,32 +952,26 @@ class TCPConnection {
                 });
     }
 
-    /* Only be called In NIO Selector thread. */
+    /* Called by NIO Selector thread, or by decode pipeline. */
     private void processQuest(Quest quest) {
 
         Answer answer = null;
-        if (questProcessor != null) {
-
-            Method method = questProcessorMethodsMap.get(quest.method());
-            if (method == null) {
-                try {
-                    Class processorClass = Class.forName(questProcessorName);
-                    method = processorClass.getMethod(quest.method(), Quest.class, InetSocketAddress.class);
-
-                    if (method != null)
-                        questProcessorMethodsMap.put(quest.method(), method);
-                    else
-                        throw new NoSuchMethodException();
+        if (handlerRegistry != null && !handlerRegistry.isEmpty()) {
 
-                } catch (ReflectiveOperationException e) {
-                    answer = buildErrorAnswerAndRecordError(quest,
-                            "Cannot find method " + quest.method() + " in class " + questProcessorName,
-                            ErrorCode.FPNN_EC_CORE_UNKNOWN_METHOD.value(), "Unknown method: " + quest.method(), e);
-                }
+            QuestHandler handler = null;
+            try {
+                handler = handlerRegistry.find(quest.method());
+                if (handler == null)
+                    throw new NoSuchMethodException(quest.method());
+
+            } catch (ReflectiveOperationException e) {
+                answer = buildErrorAnswerAndRecordError(quest,
+                        "Cannot find handler for method " + quest.method(),
+                        ErrorCode.FPNN_EC_CORE_UNKNOWN_METHOD.value(), "Unknown method: " + quest.method(), e);
             }
 
-            if (method != null) {
-                runQuestProcessor(method, quest);
+            if (handler != null) {
+                runQuestHandler(handler, quest);
                 return;
             }
         }
@@ -531,7 +988,35 @@ class TCPConnection {
     //-----------------[ I/O Processing methods ]-------------------
 
     /* Only be called by ClientEngineCore. */
-    public boolean processIOEvent(int ops) {
+    boolean hasCarriedOverOps() {
+        return carriedOverOps != 0;
+    }
+
+    /* Only be called by ClientEngineCore. Ready ops reported by select() while the connection is carried over. */
+    void mergeCarriedOverOps(int ops) {
+        carriedOverOps |= ops;
+    }
+
+    /* Only be called by ClientEngineCore. */
+    int takeCarriedOverOps() {
+        int ops = carriedOverOps;
+        carriedOverOps = 0;
+        return ops;
+    }
+
+    /*
+        Only be called by ClientEngineCore. readyNanos: when select() returned.
+        Ops left by the read & write budgets are kept for hasCarriedOverOps().
+    */
+    public boolean processIOEvent(int ops, long readyNanos) {
+
+        carriedOverOps = 0;
+
+        long delay = System.nanoTime() - readyNanos;
+        ioEvents += 1;
+        totalServiceDelayNanos += delay;
+        if (delay > maxServiceDelayNanos)
+            maxServiceDelayNanos = delay;
 
         if ((ops & SelectionKey.OP_WRITE) != 0) {
             if (!sendData())
@@ -546,80 +1031,104 @@ class TCPConnection {
 
     //-----------------[ Message Methods ]-------------------
 
-    private void sendQuest(Quest quest, AnswerCallback callback, int timeoutInSeconds, boolean keyExchangedQuest) {
+    private void sendQuest(Quest quest, AnswerCallback callback, long timeoutInMilliseconds, boolean keyExchangedQuest) {
 
         if (quest == null) {
             if (callback != null)
-                runCallback(callback, ErrorCode.FPNN_EC_CORE_INVALID_PACKAGE.value());
+                executeCallback(callback, ErrorCode.FPNN_EC_CORE_INVALID_PACKAGE.value());
 
             return;
         }
 
-        ByteBuffer buf;
+        PooledBuffer buf;
         try {
-            buf = quest.rawData();
+            buf = quest.rawData(BufferPool.forIO());
         } catch (IOException e) {
 
             ErrorRecorder.record("Encoding quest exception. method: " + quest.method(), e);
 
             if (callback != null)
-                runCallback(callback, ErrorCode.FPNN_EC_CORE_ENCODING.value());
+                executeCallback(callback, ErrorCode.FPNN_EC_CORE_ENCODING.value());
 
             return;
         }
 
-        if (timeoutInSeconds == 0)
-            timeoutInSeconds = ClientEngine.getQuestTimeout();
+        if (timeoutInMilliseconds == 0)
+            timeoutInMilliseconds = ClientEngine.getQuestTimeout() * 1000L;
 
         if (callback != null) {
             callback.setSeqNum(quest.getSeqNum());
-            callback.setTimeout(timeoutInSeconds);
+            callback.setTimeoutMillis(timeoutInMilliseconds);
             callback.setSentTime();
         }
 
-        synchronized (this) {
+        int size = buf.buffer().remaining();
+        long deadline = 0;
+        boolean written = false;
+        while (true) {
+            long signals;
+            synchronized (this) {
 
-            if (connectionClosed) {
-                if (!keyExchangedQuest)
-                    ErrorRecorder.record("Call sendQuest() after connection closed.");
+                if (connectionClosed) {
+                    buf.release();
+                    if (!keyExchangedQuest)
+                        ErrorRecorder.record("Call sendQuest() after connection closed.");
 
-                if (callback != null)
-                    runCallback(callback, ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value());
-                return;
-            }
+                    if (callback != null)
+                        executeCallback(callback, ErrorCode.FPNN_EC_CORE_CONNECTION_CLOSED.value());
+                    return;
+                }
+
+                if (keyExchangedQuest || !sendQueueFull(size)) {
+                    if (callback != null) {
+                        callbackSeqNumMap.put(quest.getSeqNum(), callback);
+                        ClientEngine.getTimeoutWheel().add(callback, this, timeoutInMilliseconds);
+                    }
 
-            if (callback != null) {
-                long timeout = callback.getTimeoutTime();
-                Set<AnswerCallback> answerSet = callbackTimeoutMap.get(timeout);
-                if (answerSet == null)
-                    answerSet = new HashSet<>();
+                    if (keyExchangedQuest)
+                        keyExchangeBuffer = buf;
+                    else if (tryWriteThrough(buf))
+                        written = true;
+                    else
+                        enqueueSendingBuffer(buf);
+
+                    break;
+                }
 
-                answerSet.add(callback);
-                callbackTimeoutMap.put(timeout, answerSet);
-                callbackSeqNumMap.put(quest.getSeqNum(), callback);
+                //-- Send queue is full: fail fast, or wait for space outside of the monitor.
+                if (sendQueueBlockMilliseconds == 0)
+                    signals = -1;
+                else {
+                    if (deadline == 0)
+                        deadline = System.nanoTime() + sendQueueBlockMilliseconds * 1000000L;
+
+                    blockedSenders.incrementAndGet();
+                    signals = sendSpaceSignals();
+                }
             }
 
-            if (!keyExchangedQuest) {
-                sendQueue.add(buf);
+            if (signals < 0 || !awaitSendQueueSpace(signals, deadline)) {
+                buf.release();
+                if (callback != null)
+                    executeCallback(callback, ErrorCode.FPNN_EC_CORE_WORK_QUEUE_FULL.value());
+                return;
             }
         }
 
         if (!keyExchangedQuest) {
-            if (connected) {
+            if (connected && !written) {
                 int interestEvents = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
-                ClientEngine.changeChannelInterestedEvent(channel, interestEvents);
+                ClientEngine.changeChannelInterestedEvent(this, interestEvents);
             }
         }
         else {
-            currentSendingBuffer = buf;
-
             int interestEvents = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
-            ClientEngine.changeChannelInterestedEvent(channel, interestEvents);
+            ClientEngine.changeChannelInterestedEvent(this, interestEvents);
         }
     }
 
-    public void sendQuest(Quest quest, AnswerCallback callback, int timeoutInSeconds) {
-        sendQuest(quest, callback, timeoutInSeconds, false);
+    public void sendQuest(Quest quest, AnswerCallback callback, long timeoutInMilliseconds) {
+        sendQuest(quest, callback, timeoutInMilliseconds, false);
     }
 
     public void sendAnswer(Answer answer) {
@@ -627,9 +1136,9 @@ class TCPConnection {
         if (!connected || answer == null)
             return;
 
-        ByteBuffer buf;
+        PooledBuffer buf;
         try {
-            buf = answer.rawData();
+            buf = answer.rawData(BufferPool.forIO());
         } catch (IOException e) {
             ErrorRecorder.record("Encoding answer exception.", e);
             return;
@@ -637,35 +1146,40 @@ class TCPConnection {
 
         synchronized (this) {
             if (connectionClosed) {
+                buf.release();
                 ErrorRecorder.record("Call sendAnswer() after connection closed.");
                 return;
             }
 
-            sendQueue.add(buf);
+            if (tryWriteThrough(buf))
+                return;
+
+            //-- Answers are never rejected by send queue limits: the peer is waiting for them.
+            enqueueSendingBuffer(buf);
         }
 
         int interestEvents = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
-        ClientEngine.changeChannelInterestedEvent(channel, interestEvents);
+        ClientEngine.changeChannelInterestedEvent(this, interestEvents);
     }
 
     //-----------------[ Close & Clear Methods ]-------------------
 
     //-- MUST call synchronized (this) outside.
-    @SuppressWarnings("unchecked")
     private void clearAllCallback(int errorCode) {
-        Iterator iterator = callbackTimeoutMap.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry entry = (Map.Entry) iterator.next();
-            Set<AnswerCallback> answerCallbackSet = (Set<AnswerCallback>) entry.getValue();
-
-            for (AnswerCallback callback : answerCallbackSet) {
-                runCallback(callback, errorCode);
-            }
-        }
+        QuestTimeoutWheel timeoutWheel = ClientEngine.getTimeoutWheel();
+        callbackSeqNumMap.forEachValue(callback -> {
+            timeoutWheel.cancel(callback);
+            executeCallback(callback, errorCode);
+        });
 
         callbackSeqNumMap.clear();
     }
     private void close(int errorCode) {
+        //-- Called by engine core thread: the buffers only visited by it can be given back here.
+        releaseWriteBatch();
+        releaseEncryptBuffer();
+        receiver.releaseBuffers();
+
         processDisconnectedEvent(errorCode);
     }
     void closedByCachedError() {
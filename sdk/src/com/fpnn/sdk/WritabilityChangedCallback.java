@@ -0,0 +1,12 @@
+package com.fpnn.sdk;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Called when pending bytes in the send queue cross the high watermark (writable = false),
+ * or drop back to the low watermark (writable = true).
+ */
+
+public interface WritabilityChangedCallback {
+    void writabilityChanged(InetSocketAddress peerAddress, boolean writable);
+}
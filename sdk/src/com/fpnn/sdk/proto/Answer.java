@@ -1,6 +1,8 @@
 package com.fpnn.sdk.proto;
 
+import com.fpnn.sdk.BufferPool;
 import com.fpnn.sdk.ErrorCode;
+import com.fpnn.sdk.PooledBuffer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -27,14 +29,21 @@ public class Answer extends Message {
     }
 
     public Answer(int seqNum, boolean error, Map payload) {
+        super(payload);
+        this.errorAnswer = error;
+        this.seqNum = seqNum;
+    }
+
+    //-- Lazy payload: see Message(byte[]).
+    public Answer(int seqNum, boolean error, byte[] rawPayload) {
+        super(rawPayload);
         this.errorAnswer = error;
         this.seqNum = seqNum;
-        this.payload = payload;
     }
 
     public void fillErrorCode(int errorCode) {
         this.errorAnswer = true;
-        payload = new HashMap();
+        setPayload(new HashMap<>());
         payload.put("code", errorCode);
     }
 
@@ -53,23 +62,23 @@ public class Answer extends Message {
         return builder.buildAnswerHeader(errorAnswer, seqNum, this);
     }
 
+    //-- Encode into a buffer taken from pool. Caller MUST release it.
+    public PooledBuffer rawData(BufferPool pool) throws IOException {
+
+        ProtocolPackageBuilder builder = new ProtocolPackageBuilder();
+        return builder.buildAnswer(errorAnswer, seqNum, this, pool);
+    }
+
     public int getErrorCode() {
         if (!errorAnswer)
             return ErrorCode.FPNN_EC_OK.value();
 
-        Object obj = get("code");
-        if (obj != null) {
-            if (obj instanceof Long)
-                return (int)obj;
-
-            if (obj instanceof Integer)
-                return (int)obj;
-
-            if (obj instanceof Short)
-                return (int)obj;
+        try {
+            return getInt("code", ErrorCode.FPNN_EC_CORE_UNKNOWN_ERROR.value());
+        }
+        catch (RuntimeException e) {
+            return ErrorCode.FPNN_EC_CORE_UNKNOWN_ERROR.value();
         }
-
-        return ErrorCode.FPNN_EC_CORE_UNKNOWN_ERROR.value();
     }
 
     public String getErrorMessage() {
@@ -77,7 +86,7 @@ public class Answer extends Message {
         if (!errorAnswer)
             return null;
 
-        return (String) get("ex", "");
+        return getString("ex", "");
     }
 
     public boolean isErrorAnswer() {
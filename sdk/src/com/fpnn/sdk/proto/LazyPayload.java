@@ -0,0 +1,260 @@
+package com.fpnn.sdk.proto;
+
+import org.msgpack.core.MessageFormat;
+import org.msgpack.core.MessageFormatException;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Received payload kept as raw msgpack bytes. A key to offset index is built on first access,
+ * and only the requested values are decoded. Typed reads decode primitives without boxing.
+ */
+
+class LazyPayload {
+
+    private final byte[] data;
+    private volatile boolean indexed;
+    private String[] keys;
+    private int[] offsets;          //-- Offset of the value of keys[i] in data.
+
+    LazyPayload(byte[] data) {
+        this.data = data;
+        this.indexed = false;
+    }
+
+    byte[] data() {
+        return data;
+    }
+
+    //-- Return false if some key isn't a string. Such payloads MUST be materialized.
+    private synchronized boolean buildIndex() {
+        if (indexed)
+            return keys != null;
+
+        MessagePayloadUnpacker reusable = null;
+        try {
+            reusable = MessagePayloadUnpacker.reusable(data, 0, data.length);
+            MessageUnpacker unpacker = reusable.unpacker();
+
+            int count = unpacker.unpackMapHeader();
+            String[] newKeys = new String[count];
+            int[] newOffsets = new int[count];
+
+            for (int i = 0; i < count; i++) {
+                if (unpacker.getNextFormat().getValueType() != ValueType.STRING) {
+                    indexed = true;
+                    return false;
+                }
+
+                newKeys[i] = unpacker.unpackString();
+                newOffsets[i] = (int) unpacker.getTotalReadBytes();
+                unpacker.skipValue();
+            }
+
+            if (unpacker.hasNext())
+                throw new MessageFormatException("Invalid data following payload.");
+
+            keys = newKeys;
+            offsets = newOffsets;
+            indexed = true;
+            return true;
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            if (reusable != null)
+                reusable.detach();
+        }
+    }
+
+    //-- Return false if the payload can't be indexed, and MUST be materialized.
+    boolean ensureIndexed() {
+        if (indexed)
+            return keys != null;
+
+        return buildIndex();
+    }
+
+    //-- Offset of the value, or -1 if the key is absent or its value is nil.
+    private int find(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key))
+                return (data[offsets[i]] == (byte) 0xc0) ? -1 : offsets[i];
+        }
+        return -1;
+    }
+
+    boolean contains(String key) {
+        return find(key) >= 0;
+    }
+
+    Map<Object, Object> materialize() {
+        try {
+            return MessagePayloadUnpacker.unpack(data, 0, data.length);
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+    }
+
+    //-----------------[ Value Decoding ]-------------------
+
+    private MessagePayloadUnpacker valueUnpacker(String key) {
+        int offset = find(key);
+        if (offset < 0)
+            return null;
+
+        try {
+            return MessagePayloadUnpacker.reusable(data, offset, data.length - offset);
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+    }
+
+    private static ClassCastException typeMismatched(String key, MessageFormat format, String type) {
+        return new ClassCastException("Value of key " + key + " is " + format.getValueType() + ", not " + type);
+    }
+
+    //-- Boxed value as unpack() decodes it. null if absent.
+    Object get(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        if (reusable == null)
+            return null;
+
+        try {
+            return reusable.unpackValue();
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    //-- MUST check contains(key) before the typed reads.
+    long readLong(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() != ValueType.INTEGER)
+                throw typeMismatched(key, format, "integer");
+
+            return unpacker.unpackLong();
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    int readInt(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() != ValueType.INTEGER)
+                throw typeMismatched(key, format, "integer");
+
+            return unpacker.unpackInt();
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    double readDouble(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() == ValueType.FLOAT)
+                return unpacker.unpackDouble();
+
+            if (format.getValueType() == ValueType.INTEGER)
+                return unpacker.unpackLong();
+
+            throw typeMismatched(key, format, "number");
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    boolean readBoolean(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() != ValueType.BOOLEAN)
+                throw typeMismatched(key, format, "boolean");
+
+            return unpacker.unpackBoolean();
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    //-- Binary values are decoded as UTF-8.
+    String readString(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() == ValueType.STRING)
+                return unpacker.unpackString();
+
+            if (format.getValueType() == ValueType.BINARY)
+                return new String(unpacker.readPayload(unpacker.unpackBinaryHeader()), StandardCharsets.UTF_8);
+
+            throw typeMismatched(key, format, "string");
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    //-- String values are returned as their UTF-8 bytes.
+    byte[] readBytes(String key) {
+        MessagePayloadUnpacker reusable = valueUnpacker(key);
+        try {
+            MessageUnpacker unpacker = reusable.unpacker();
+            MessageFormat format = unpacker.getNextFormat();
+            if (format.getValueType() == ValueType.BINARY)
+                return unpacker.readPayload(unpacker.unpackBinaryHeader());
+
+            if (format.getValueType() == ValueType.STRING)
+                return unpacker.readPayload(unpacker.unpackRawStringHeader());
+
+            throw typeMismatched(key, format, "binary");
+        }
+        catch (IOException e) {
+            throw new MessageFormatException("Invalid payload format.", e);
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+}
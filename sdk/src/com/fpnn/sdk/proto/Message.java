@@ -1,9 +1,13 @@
 package com.fpnn.sdk.proto;
 
+import org.msgpack.core.MessageFormatException;
+import org.msgpack.core.buffer.MessageBufferOutput;
+
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.NoSuchElementException;
-import java.util.TreeMap;
 
 /**
  * Created by shiwangxing on 2017/11/29.
@@ -11,58 +15,440 @@ import java.util.TreeMap;
 
 public class Message {
 
-    protected Map payload;
+    /*
+        Exactly one of payload, lazyPayload, params & encoder holds the data.
+        Reading threads may race on a received message: the state only moves
+        encoder -> lazyPayload -> payload, or params -> payload, under the message lock,
+        and the target is set before the source is cleared. So a reader snapshotting
+        the fields in that order always finds the data.
+    */
+    protected volatile Map payload;             //-- null until a lazy payload or params are materialized.
+    private volatile LazyPayload lazyPayload;   //-- Raw received payload. Values are decoded on access.
+    private volatile ParamList params;          //-- Outbound payload built by param(), in insertion order.
+    private volatile PayloadEncoder encoder;    //-- Outbound payload written by a typed encoder.
 
     //-----------------[ Constructor Functions ]-------------------
     public Message() {
-        payload = new TreeMap<String, Object>();
+        payload = null;
+        lazyPayload = null;
+        params = new ParamList();
+        encoder = null;
     }
 
     public Message(Map body) {
         payload = body;
+        lazyPayload = null;
+        params = null;
+        encoder = null;
+    }
+
+    //-- Lazy payload: rawPayload is a msgpack map, owned by the message. Values are decoded on first access.
+    public Message(byte[] rawPayload) {
+        payload = null;
+        lazyPayload = new LazyPayload(rawPayload);
+        params = null;
+        encoder = null;
+    }
+
+    //-- Typed outbound payload. Reading it back encodes it, and decodes the encoded bytes.
+    public Message(PayloadEncoder encoder) {
+        payload = null;
+        lazyPayload = null;
+        params = null;
+        this.encoder = encoder;
     }
 
     //-----------------[ Properties Functions ]-------------------
 
+    //-- A lazy payload is decoded wholly here, and params are copied into an ordered map.
+    //-- The typed accessors & param() overloads avoid that.
+    private void materialize() {
+        if (encoder == null && lazyPayload == null && params == null)
+            return;
+
+        synchronized (this) {
+            unfoldEncoder();
+
+            if (lazyPayload != null) {
+                payload = lazyPayload.materialize();
+                lazyPayload = null;
+            }
+            else if (params != null) {
+                payload = params.toMap();
+                params = null;
+            }
+        }
+    }
+
+    //-- An encoder-written payload is read as a lazy payload of its encoded bytes.
+    private void unfoldEncoder() {
+        if (encoder == null)
+            return;
+
+        synchronized (this) {
+            PayloadEncoder current = encoder;
+            if (current == null)
+                return;
+
+            try {
+                MessagePayloadPacker packer = MessagePayloadPacker.reusable();
+                packer.pack(current);
+                lazyPayload = new LazyPayload(packer.toByteArray());
+                encoder = null;
+            }
+            catch (IOException e) {
+                throw new MessageFormatException("Encoding payload failed.", e);
+            }
+        }
+    }
+
+    //-- The lazy payload values are read from, or null. Payloads with non-string keys are materialized.
+    private LazyPayload lazy() {
+        unfoldEncoder();
+
+        LazyPayload lazy = lazyPayload;
+        if (lazy == null)
+            return null;
+
+        if (lazy.ensureIndexed())
+            return lazy;
+
+        materialize();
+        return null;
+    }
+
+    public boolean isLazyPayload() {
+        return lazyPayload != null;
+    }
+
     public Map getPayload() {
+        materialize();
         return payload;
     }
 
     public void setPayload(Map p) {
         payload = p;
+        lazyPayload = null;
+        params = null;
+        encoder = null;
     }
 
     //-----------------[ Data Accessing Functions ]-------------------
 
     public void param(String key, Object value) {
+        if (params != null) {
+            params.put(key, value);
+            return;
+        }
+
+        materialize();
         payload.put(key, value);
     }
 
+    //-- Packed without boxing.
+    public void param(String key, long value) {
+        if (params != null)
+            params.put(key, value);
+        else
+            param(key, (Object) value);
+    }
+
+    //-- Packed without boxing.
+    public void param(String key, int value) {
+        if (params != null)
+            params.put(key, value);
+        else
+            param(key, (Object) value);
+    }
+
+    //-- Keeps chars packed as strings. Without it, a char would widen to param(String, int).
+    public void param(String key, char value) {
+        param(key, (Object) value);
+    }
+
+    //-- Value from the map or params. MUST NOT be called in lazy mode.
+    private Object value(String key) {
+        ParamList current = params;
+        return (current != null) ? current.get(key) : payload.get(key);
+    }
+
     public Object get(String key) {
-        return payload.get(key);
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.get(key);
+
+        return value(key);
     }
 
     public Object get(String key, Object def) {
-        Object o = payload.get(key);
+        Object o = get(key);
         return (o != null) ? o : def;
     }
 
     public Object want(String key) throws NoSuchElementException {
-        Object o = payload.get(key);
+        Object o = get(key);
         if (o == null)
-            throw new NoSuchElementException("Cannot found object for key: " + key);
+            throw noSuchElement(key);
 
         return o;
     }
 
+    //-----------------[ Typed Accessing Functions ]-------------------
+
+    /*
+        Typed reads decode only the requested value from a lazy payload, without boxing.
+        Absent & nil values return the default, or throw NoSuchElementException for want*().
+        Values of other types throw ClassCastException.
+    */
+
+    private static NoSuchElementException noSuchElement(String key) {
+        return new NoSuchElementException("Cannot found object for key: " + key);
+    }
+
+    private static ClassCastException typeMismatched(String key, Object o, String type) {
+        return new ClassCastException("Value of key " + key + " is " + o.getClass().getSimpleName() + ", not " + type);
+    }
+
+    private static long toLong(String key, Object o) {
+        if (o instanceof Long || o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).longValue();
+
+        throw typeMismatched(key, o, "integer");
+    }
+
+    private static int toInt(String key, Object o) {
+        if (o instanceof Integer || o instanceof Short || o instanceof Byte)
+            return ((Number) o).intValue();
+
+        if (o instanceof Long) {
+            long value = (long) o;
+            if (value == (int) value)
+                return (int) value;
+        }
+
+        throw typeMismatched(key, o, "int");
+    }
+
+    private static double toDouble(String key, Object o) {
+        if (o instanceof Number)
+            return ((Number) o).doubleValue();
+
+        throw typeMismatched(key, o, "number");
+    }
+
+    private static boolean toBoolean(String key, Object o) {
+        if (o instanceof Boolean)
+            return (boolean) o;
+
+        throw typeMismatched(key, o, "boolean");
+    }
+
+    private static String toStringValue(String key, Object o) {
+        if (o instanceof String)
+            return (String) o;
+
+        if (o instanceof byte[])
+            return new String((byte[]) o, StandardCharsets.UTF_8);
+
+        throw typeMismatched(key, o, "string");
+    }
+
+    private static byte[] toBytes(String key, Object o) {
+        if (o instanceof byte[])
+            return (byte[]) o;
+
+        if (o instanceof String)
+            return ((String) o).getBytes(StandardCharsets.UTF_8);
+
+        throw typeMismatched(key, o, "binary");
+    }
+
+    public long getLong(String key, long def) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readLong(key) : def;
+
+        Object o = value(key);
+        return (o != null) ? toLong(key, o) : def;
+    }
+
+    public long wantLong(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readLong(key);
+        }
+        return toLong(key, want(key));
+    }
+
+    public int getInt(String key, int def) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readInt(key) : def;
+
+        Object o = value(key);
+        return (o != null) ? toInt(key, o) : def;
+    }
+
+    public int wantInt(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readInt(key);
+        }
+        return toInt(key, want(key));
+    }
+
+    public double getDouble(String key, double def) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readDouble(key) : def;
+
+        Object o = value(key);
+        return (o != null) ? toDouble(key, o) : def;
+    }
+
+    public double wantDouble(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readDouble(key);
+        }
+        return toDouble(key, want(key));
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readBoolean(key) : def;
+
+        Object o = value(key);
+        return (o != null) ? toBoolean(key, o) : def;
+    }
+
+    public boolean wantBoolean(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readBoolean(key);
+        }
+        return toBoolean(key, want(key));
+    }
+
+    //-- Binary values are decoded as UTF-8.
+    public String getString(String key, String def) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readString(key) : def;
+
+        Object o = value(key);
+        return (o != null) ? toStringValue(key, o) : def;
+    }
+
+    public String getString(String key) {
+        return getString(key, null);
+    }
+
+    public String wantString(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readString(key);
+        }
+        return toStringValue(key, want(key));
+    }
+
+    //-- String values are returned as their UTF-8 bytes.
+    public byte[] getBytes(String key) {
+        LazyPayload lazy = lazy();
+        if (lazy != null)
+            return lazy.contains(key) ? lazy.readBytes(key) : null;
+
+        Object o = value(key);
+        return (o != null) ? toBytes(key, o) : null;
+    }
+
+    public byte[] wantBytes(String key) throws NoSuchElementException {
+        LazyPayload lazy = lazy();
+        if (lazy != null) {
+            if (!lazy.contains(key))
+                throw noSuchElement(key);
+
+            return lazy.readBytes(key);
+        }
+        return toBytes(key, want(key));
+    }
+
     //-----------------[ To Bytes Array Functions ]-------------------
     public byte[] toByteArray() throws IOException {
-        MessagePayloadPacker packer = new MessagePayloadPacker();
-        packer.pack(payload);
+        PayloadEncoder currentEncoder = encoder;
+        LazyPayload lazy = lazyPayload;
+        if (currentEncoder == null && lazy != null)
+            return Arrays.copyOf(lazy.data(), lazy.data().length);
+
+        MessagePayloadPacker packer = MessagePayloadPacker.reusable();
+        packCurrent(packer, currentEncoder);
         return packer.toByteArray();
     }
 
     public byte[] raw() throws IOException {
         return toByteArray();
     }
+
+    //-- Pack the payload straight into out, without an intermediate byte array.
+    //-- A lazy payload is written as received.
+    public void packPayload(MessageBufferOutput out) throws IOException {
+        PayloadEncoder currentEncoder = encoder;
+        LazyPayload lazy = lazyPayload;
+        if (currentEncoder == null && lazy != null) {
+            out.write(lazy.data(), 0, lazy.data().length);
+            return;
+        }
+
+        MessagePayloadPacker packer = MessagePayloadPacker.reusable(out);
+        packCurrent(packer, currentEncoder);
+        packer.flush();
+    }
+
+    //-- Fields read in state order, see the field comments. The lazy payload is handled by callers.
+    private void packCurrent(MessagePayloadPacker packer, PayloadEncoder currentEncoder) throws IOException {
+        if (currentEncoder != null) {
+            packer.pack(currentEncoder);
+            return;
+        }
+
+        ParamList currentParams = params;
+        if (currentParams != null)
+            packer.pack(currentParams);
+        else
+            packer.pack(payload);
+    }
+
+    //-----------------[ Typed Decoding Functions ]-------------------
+
+    //-- Decode straight from the received msgpack bytes, without the map layer.
+    //-- Payloads not kept as raw bytes are packed first, so this is only fast with lazy payloads.
+    public <T> T decode(PayloadDecoder<T> decoder) throws IOException {
+        unfoldEncoder();
+
+        LazyPayload lazy = lazyPayload;
+        byte[] data = (lazy != null) ? lazy.data() : toByteArray();
+        MessagePayloadUnpacker reusable = MessagePayloadUnpacker.reusable(data, 0, data.length);
+        try {
+            return decoder.unpack(reusable.unpacker());
+        }
+        finally {
+            reusable.detach();
+        }
+    }
 }
@@ -2,6 +2,8 @@ package com.fpnn.sdk.proto;
 
 import org.msgpack.core.MessageBufferPacker;
 import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.buffer.MessageBufferOutput;
 
 import java.io.IOException;
 import java.math.BigInteger;
@@ -20,10 +22,51 @@ import java.util.Vector;
 
 public class MessagePayloadPacker {
 
-    private MessageBufferPacker packer;
+    //-- Reusable packers of each thread: for external outputs, and for byte arrays.
+    private static final ThreadLocal<MessagePayloadPacker> reusableOutputPackers = new ThreadLocal<>();
+    private static final ThreadLocal<MessagePayloadPacker> reusableBufferPackers = new ThreadLocal<>();
+
+    private MessagePacker packer;
+    private MessageBufferPacker bufferPacker;      //-- null when packing into an external output.
 
     public MessagePayloadPacker() {
-        packer = MessagePack.newDefaultBufferPacker();
+        bufferPacker = MessagePack.newDefaultBufferPacker();
+        packer = bufferPacker;
+    }
+
+    //-- Pack straight into out. Call flush() after pack().
+    public MessagePayloadPacker(MessageBufferOutput out) {
+        bufferPacker = null;
+        packer = MessagePack.newDefaultPacker(out);
+    }
+
+    //-- Reusable packer of current thread, packing into out. MUST NOT be kept after flush().
+    public static MessagePayloadPacker reusable(MessageBufferOutput out) throws IOException {
+        MessagePayloadPacker reusable = reusableOutputPackers.get();
+        if (reusable == null) {
+            reusable = new MessagePayloadPacker(out);
+            reusableOutputPackers.set(reusable);
+        }
+        else
+            reusable.packer.reset(out);
+
+        return reusable;
+    }
+
+    //-- Reusable packer of current thread, packing into its own cleared buffer. MUST NOT be kept after toByteArray().
+    public static MessagePayloadPacker reusable() throws IOException {
+        MessagePayloadPacker reusable = reusableBufferPackers.get();
+        if (reusable == null) {
+            reusable = new MessagePayloadPacker();
+            reusableBufferPackers.set(reusable);
+        }
+        else {
+            //-- Flush first: bytes left by a failed packing are dropped by clear(), not put before the new payload.
+            reusable.bufferPacker.flush();
+            reusable.bufferPacker.clear();
+        }
+
+        return reusable;
     }
 
     private void dispatch(Object obj) throws IOException {
@@ -290,8 +333,36 @@ public class MessagePayloadPacker {
         packMap(payload);
     }
 
+    //-- Integers are packed without boxing. Only object values go through dispatch().
+    void pack(ParamList params) throws IOException {
+        int size = params.size();
+        packer.packMapHeader(size);
+
+        for (int i = 0; i < size; i++) {
+            packer.packString(params.key(i));
+
+            switch (params.kind(i)) {
+                case ParamList.longValue:
+                    packer.packLong(params.number(i));
+                    break;
+                case ParamList.intValue:
+                    packer.packInt((int) params.number(i));
+                    break;
+                default:
+                    dispatch(params.object(i));
+            }
+        }
+    }
+
+    void pack(PayloadEncoder encoder) throws IOException {
+        encoder.pack(packer);
+    }
+
+    public void flush() throws IOException {
+        packer.flush();
+    }
+
     public byte[] toByteArray() throws IOException {
-        packer.close();
-        return packer.toByteArray();
+        return bufferPacker.toByteArray();
     }
 }
@@ -4,10 +4,14 @@ import org.msgpack.core.ExtensionTypeHeader;
 import org.msgpack.core.MessageFormat;
 import org.msgpack.core.MessagePack;
 import org.msgpack.core.MessageUnpacker;
+import org.msgpack.core.buffer.ArrayBufferInput;
+import org.msgpack.core.buffer.ByteBufferInput;
+import org.msgpack.core.buffer.MessageBuffer;
 import org.msgpack.value.ValueType;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -19,7 +23,22 @@ import java.util.TreeMap;
 
 public class MessagePayloadUnpacker {
 
+    private static final ByteBuffer emptyByteBuffer = ByteBuffer.allocate(0);
+
+    //-- One reusable unpacker for each thread. The MessageUnpacker keeps its string decoding buffers across packages.
+    private static final ThreadLocal<MessagePayloadUnpacker> reusableUnpackers = new ThreadLocal<>();
+
     private MessageUnpacker unpacker;
+    private ArrayBufferInput arrayInput;            //-- Reusable mode only.
+    private ByteBufferInput byteBufferInput;        //-- Reusable mode only. Created on first use.
+    private boolean inUse;                          //-- Reusable mode only. Between reusable() & detach().
+
+    private MessagePayloadUnpacker() {
+        arrayInput = new ArrayBufferInput(new byte[0]);
+        byteBufferInput = null;
+        inUse = false;
+        unpacker = MessagePack.DEFAULT_UNPACKER_CONFIG.newUnpacker(arrayInput);
+    }
 
     public MessagePayloadUnpacker(byte[] contents) {
         unpacker = MessagePack.newDefaultUnpacker(contents);
@@ -27,6 +46,15 @@ public class MessagePayloadUnpacker {
     public MessagePayloadUnpacker(byte[] contents, int offset, int length) {
         unpacker = MessagePack.newDefaultUnpacker(contents, offset, length);
     }
+    //-- Unpack the remaining bytes of contents in place. Direct buffers are read without copying to heap.
+    public MessagePayloadUnpacker(ByteBuffer contents) {
+        unpacker = MessagePack.newDefaultUnpacker(contents);
+    }
+
+    //-- Unpack the next value into boxed types, as the values of unpack().
+    Object unpackValue() throws IOException {
+        return dispatch();
+    }
 
     private Object dispatch() throws IOException {
 
@@ -94,7 +122,81 @@ public class MessagePayloadUnpacker {
         throw new IOException("No more element, or unsupported format.");
     }
 
+    //-- A nested use, e.g. a PayloadDecoder reading another message, gets a fresh unpacker,
+    //-- so the outer one isn't reset underneath its user.
+    private static MessagePayloadUnpacker reusableUnpacker() {
+        MessagePayloadUnpacker reusable = reusableUnpackers.get();
+        if (reusable == null) {
+            reusable = new MessagePayloadUnpacker();
+            reusableUnpackers.set(reusable);
+        }
+        else if (reusable.inUse)
+            return new MessagePayloadUnpacker();
+
+        return reusable;
+    }
+
+    //-- Reusable unpacker of current thread, reading contents. MUST call detach() after use.
+    static MessagePayloadUnpacker reusable(byte[] contents, int offset, int length) throws IOException {
+        MessagePayloadUnpacker reusable = reusableUnpacker();
+        reusable.arrayInput.reset(contents, offset, length);
+        reusable.unpacker.reset(reusable.arrayInput);
+        reusable.inUse = true;
+        return reusable;
+    }
+
+    //-- Drop the reference to the contents given by reusable().
+    void detach() {
+        arrayInput.reset((MessageBuffer) null);
+        inUse = false;
+    }
+
+    MessageUnpacker unpacker() {
+        return unpacker;
+    }
+
+    //-- Unpack with the reusable unpacker of current thread. The input is detached after unpacking.
+    public static Map<Object, Object> unpack(byte[] contents, int offset, int length) throws IOException {
+        MessagePayloadUnpacker reusable = reusable(contents, offset, length);
+        try {
+            return reusable.unpackMap();
+        }
+        finally {
+            reusable.detach();
+        }
+    }
+
+    //-- A payload MUST be a msgpack map: fixmap, map 16 or map 32.
+    public static boolean isMapHeader(byte firstByte) {
+        return (firstByte & 0xF0) == 0x80 || firstByte == (byte) 0xde || firstByte == (byte) 0xdf;
+    }
+
+    //-- Unpack the remaining bytes of contents with the reusable unpacker of current thread.
+    public static Map<Object, Object> unpack(ByteBuffer contents) throws IOException {
+        MessagePayloadUnpacker reusable = reusableUnpacker();
+        if (reusable.byteBufferInput == null)
+            reusable.byteBufferInput = new ByteBufferInput(contents);
+        else
+            reusable.byteBufferInput.reset(contents);
+
+        reusable.unpacker.reset(reusable.byteBufferInput);
+        reusable.inUse = true;
+        try {
+            return reusable.unpackMap();
+        }
+        finally {
+            reusable.byteBufferInput.reset(emptyByteBuffer);
+            reusable.inUse = false;
+        }
+    }
+
     public Map unpack() throws IOException {
+        return unpackMap();
+    }
+
+    //-- Maps are built by dispatch() as Map<Object, Object>.
+    @SuppressWarnings("unchecked")
+    private Map<Object, Object> unpackMap() throws IOException {
 
         Object obj = dispatch();
         if (obj instanceof Map) {
@@ -102,7 +204,7 @@ public class MessagePayloadUnpacker {
                 throw new IOException("Invalid data following payload.");
             }
 
-            return (Map)obj;
+            return (Map<Object, Object>)obj;
         }
 
         throw new IOException("Invalid payload format.");
@@ -0,0 +1,134 @@
+package com.fpnn.sdk.proto;
+
+import com.fpnn.sdk.BufferPool;
+import com.fpnn.sdk.PooledBuffer;
+import org.msgpack.core.buffer.MessageBufferOutput;
+import org.msgpack.core.buffer.MessageBuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * MessageBufferOutput packing straight into one growing buffer, so a package is encoded in a single pass.
+ * Bytes before the payload are written through buffer(), and the header is back-patched after packing.
+ */
+
+class PackageBufferOutput implements MessageBufferOutput {
+
+    private final BufferPool pool;          //-- null: plain heap buffers.
+    private PooledBuffer pooled;
+    private ByteBuffer buffer;
+    private int position;
+
+    PackageBufferOutput(BufferPool pool, int initialSize) {
+        this.pool = pool;
+        pooled = allocate(initialSize);
+        buffer = pooled.buffer();
+        position = 0;
+    }
+
+    private PooledBuffer allocate(int size) {
+        if (pool == null)
+            return PooledBuffer.wrap(ByteBuffer.allocate(size));
+
+        PooledBuffer newPooled = pool.acquire(size);
+        newPooled.buffer().clear();
+        return newPooled;
+    }
+
+    //-- Absolute access for the header. The position of the returned buffer is meaningless.
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    int position() {
+        return position;
+    }
+
+    void skip(int bytes) {
+        ensureCapacity(bytes);
+        position += bytes;
+    }
+
+    void put(byte[] data) {
+        write(data, 0, data.length);
+    }
+
+    //-- Hand the encoded package to the caller, flipped to [0, position). The output can't be used after that.
+    PooledBuffer finish() {
+        buffer.limit(position);
+        buffer.position(0);
+
+        PooledBuffer result = pooled;
+        pooled = null;
+        buffer = null;
+        return result;
+    }
+
+    //-- Give the buffer back when encoding failed.
+    void discard() {
+        if (pooled != null) {
+            pooled.release();
+            pooled = null;
+            buffer = null;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() - position >= size)
+            return;
+
+        PooledBuffer newPooled = allocate(Math.max(buffer.capacity() * 2, position + size));
+        ByteBuffer newBuffer = newPooled.buffer();
+
+        ByteBuffer content = buffer.duplicate();
+        content.limit(position);
+        content.position(0);
+        newBuffer.put(content);
+
+        pooled.release();
+        pooled = newPooled;
+        buffer = newBuffer;
+    }
+
+    @Override
+    public MessageBuffer next(int minimumSize) {
+        ensureCapacity(minimumSize);
+
+        if (buffer.hasArray())
+            return MessageBuffer.wrap(buffer.array(), buffer.arrayOffset() + position, buffer.capacity() - position);
+
+        ByteBuffer remains = buffer.duplicate();
+        remains.limit(buffer.capacity());
+        remains.position(position);
+        return MessageBuffer.wrap(remains.slice());
+    }
+
+    @Override
+    public void writeBuffer(int length) {
+        position += length;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+
+        ByteBuffer target = buffer.duplicate();
+        target.limit(buffer.capacity());
+        target.position(position);
+        target.put(data, offset, length);
+        position += length;
+    }
+
+    @Override
+    public void add(byte[] data, int offset, int length) {
+        write(data, offset, length);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void flush() {
+    }
+}
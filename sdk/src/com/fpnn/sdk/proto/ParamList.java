@@ -0,0 +1,127 @@
+package com.fpnn.sdk.proto;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Outbound payload: key/value pairs in insertion order, in flat arrays.
+ * Integers are kept unboxed. Setting an existing key replaces its value, as a Map does.
+ * Payloads are small, so the linear key scan beats a tree or hash lookup.
+ */
+
+class ParamList {
+
+    static final byte objectValue = 0;
+    static final byte longValue = 1;
+    static final byte intValue = 2;
+
+    private static final int initialCapacity = 8;
+
+    private String[] keys;
+    private byte[] kinds;
+    private Object[] objects;       //-- Value if kind is objectValue.
+    private long[] numbers;         //-- Value if kind is longValue or intValue.
+    private int size;
+
+    ParamList() {
+        keys = new String[initialCapacity];
+        kinds = new byte[initialCapacity];
+        objects = new Object[initialCapacity];
+        numbers = new long[initialCapacity];
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String key(int index) {
+        return keys[index];
+    }
+
+    byte kind(int index) {
+        return kinds[index];
+    }
+
+    Object object(int index) {
+        return objects[index];
+    }
+
+    long number(int index) {
+        return numbers[index];
+    }
+
+    private int indexOf(String key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key || keys[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    private int slot(String key) {
+        Objects.requireNonNull(key, "Payload key is null.");
+
+        int index = indexOf(key);
+        if (index >= 0)
+            return index;
+
+        if (size == keys.length) {
+            int capacity = size * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+
+        keys[size] = key;
+        return size++;
+    }
+
+    void put(String key, Object value) {
+        int index = slot(key);
+        kinds[index] = objectValue;
+        objects[index] = value;
+    }
+
+    void put(String key, long value) {
+        int index = slot(key);
+        kinds[index] = longValue;
+        objects[index] = null;
+        numbers[index] = value;
+    }
+
+    void put(String key, int value) {
+        int index = slot(key);
+        kinds[index] = intValue;
+        objects[index] = null;
+        numbers[index] = value;
+    }
+
+    private Object value(int index) {
+        switch (kinds[index]) {
+            case longValue:
+                return numbers[index];
+            case intValue:
+                return (int) numbers[index];
+            default:
+                return objects[index];
+        }
+    }
+
+    //-- Integers are boxed here.
+    Object get(String key) {
+        int index = indexOf(key);
+        return (index >= 0) ? value(index) : null;
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>(size * 2);
+        for (int i = 0; i < size; i++)
+            map.put(keys[i], value(i));
+
+        return map;
+    }
+}
@@ -0,0 +1,14 @@
+package com.fpnn.sdk.proto;
+
+import org.msgpack.core.MessageUnpacker;
+
+import java.io.IOException;
+
+/**
+ * Typed payload reader, decoding a received payload straight into a result object. See Message.decode().
+ * unpack() reads the whole payload map from unpacker, and MUST NOT access any Message in the meantime.
+ */
+
+public interface PayloadDecoder<T> {
+    T unpack(MessageUnpacker unpacker) throws IOException;
+}
@@ -0,0 +1,14 @@
+package com.fpnn.sdk.proto;
+
+import org.msgpack.core.MessagePacker;
+
+import java.io.IOException;
+
+/**
+ * Typed payload writer, replacing param() for fixed-schema quests.
+ * pack() MUST write one whole msgpack map, and may be called more than once, e.g. when a quest is resent.
+ */
+
+public interface PayloadEncoder {
+    void pack(MessagePacker packer) throws IOException;
+}
@@ -1,10 +1,52 @@
 package com.fpnn.sdk.proto;
 
+import com.fpnn.sdk.BufferPool;
+import com.fpnn.sdk.ClientEngine;
+import com.fpnn.sdk.PooledBuffer;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ProtocolPackageBuilder {
 
+    private static final int initialPayloadSizeHint = 256;
+    private static final int maxCachedMethods = 1024;
+
+    /*
+        Payload size learned from recent packages, used as the initial buffer size of the next one.
+        Moving average with weight 1/8, and samples are clamped to twice the hint, so the hint grows
+        at most 1/8 per package: an occasional large payload doesn't make the following small ones
+        take large buffers. Payloads above the hint just grow their buffer. Racy updates only lose a sample.
+    */
+    private static class PayloadSizeHint {
+        private volatile int hint = initialPayloadSizeHint;
+
+        int get() {
+            return hint;
+        }
+
+        void record(int payloadSize) {
+            int current = hint;
+            int sample = Math.min(payloadSize, current * 2);
+            int next = current + ((sample - current) >> 3);
+            hint = Math.max(1, Math.min(next, ClientEngine.getBufferPoolMaxClassSize()));
+        }
+    }
+
+    private static class MethodEntry extends PayloadSizeHint {
+        final byte[] utf8method;
+
+        MethodEntry(String method) {
+            utf8method = method.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    //-- Methods are a small fixed set in practice, capped against misuse.
+    private static final ConcurrentHashMap<String, MethodEntry> methodEntries = new ConcurrentHashMap<>();
+    private static final PayloadSizeHint answerSizeHint = new PayloadSizeHint();
+
     private byte[] header;
 
     public ProtocolPackageBuilder() {
@@ -21,6 +63,19 @@ public class ProtocolPackageBuilder {
         header[5] |= 0x80;
     }
 
+    private static MethodEntry methodEntry(String method) {
+        MethodEntry entry = methodEntries.get(method);
+        if (entry == null) {
+            entry = new MethodEntry(method);
+            if (methodEntries.size() < maxCachedMethods) {
+                MethodEntry existed = methodEntries.putIfAbsent(method, entry);
+                if (existed != null)
+                    entry = existed;
+            }
+        }
+        return entry;
+    }
+
     private void fillLittleEndianInt(int value, int idx) {
         header[idx + 0] = (byte) (value & 0xFF);
         header[idx + 1] = (byte) ((value >> 8) & 0xFF);
@@ -28,71 +83,77 @@ public class ProtocolPackageBuilder {
         header[idx + 3] = (byte) ((value >> 24) & 0xFF);
     }
 
-    public ByteBuffer buildOneWayQuestHeader(String method, Message message) throws IOException {
-
-        byte[] utf8method = method.getBytes("UTF-8");
-
-        header[6] = 0;
-        header[7] = (byte)utf8method.length;
-
-        byte[] payloadBin = message.raw();
-        int length = 12 + utf8method.length + payloadBin.length;
+    /*
+        Single pass: reserve the header & method name, pack the payload right after them,
+        then back-patch the payload length into the header. pool == null: plain heap buffer.
+    */
+    private PooledBuffer build(BufferPool pool, int headerLength, byte[] utf8method, PayloadSizeHint sizeHint,
+                               Message message) throws IOException {
+        int prefixLength = headerLength + ((utf8method != null) ? utf8method.length : 0);
+
+        PackageBufferOutput output = new PackageBufferOutput(pool, prefixLength + sizeHint.get());
+        try {
+            output.skip(headerLength);
+            if (utf8method != null)
+                output.put(utf8method);
+
+            message.packPayload(output);
+
+            int payloadLength = output.position() - prefixLength;
+            sizeHint.record(payloadLength);
+            fillLittleEndianInt(payloadLength, 8);
+
+            ByteBuffer buf = output.buffer();
+            for (int i = 0; i < headerLength; i++)
+                buf.put(i, header[i]);
+
+            return output.finish();
+        }
+        catch (IOException | RuntimeException e) {
+            output.discard();
+            throw e;
+        }
+    }
 
-        fillLittleEndianInt(payloadBin.length, 8);
+    public PooledBuffer buildOneWayQuest(String method, Message message, BufferPool pool) throws IOException {
 
-        ByteBuffer buf = ByteBuffer.allocate(length);
-        buf.clear();
+        MethodEntry entry = methodEntry(method);
 
-        buf.put(header, 0, 12);
-        buf.put(utf8method);
-        buf.put(payloadBin);
+        header[6] = 0;
+        header[7] = (byte)entry.utf8method.length;
 
-        buf.flip();
-        return buf;
+        return build(pool, 12, entry.utf8method, entry, message);
     }
 
-    public ByteBuffer buildTwoWayQuestHeader(String method, int seqNum, Message message) throws IOException {
+    public PooledBuffer buildTwoWayQuest(String method, int seqNum, Message message, BufferPool pool) throws IOException {
 
-        byte[] utf8method = method.getBytes("UTF-8");
+        MethodEntry entry = methodEntry(method);
 
         header[6] = 1;
-        header[7] = (byte)utf8method.length;
-
-        byte[] payloadBin = message.raw();
-        int length = 16 + utf8method.length + payloadBin.length;
-
-        fillLittleEndianInt(payloadBin.length, 8);
+        header[7] = (byte)entry.utf8method.length;
         fillLittleEndianInt(seqNum, 12);
 
-        ByteBuffer buf = ByteBuffer.allocate(length);
-        buf.clear();
-
-        buf.put(header, 0, 16);
-        buf.put(utf8method);
-        buf.put(payloadBin);
-
-        buf.flip();
-        return buf;
+        return build(pool, 16, entry.utf8method, entry, message);
     }
 
-    public ByteBuffer buildAnswerHeader(boolean isError, int seqNum, Message message) throws IOException {
+    public PooledBuffer buildAnswer(boolean isError, int seqNum, Message message, BufferPool pool) throws IOException {
 
         header[6] = 2;
         header[7] = (byte)(isError ? 1 : 0);
-
-        byte[] payloadBin = message.raw();
-        int length = 16 + payloadBin.length;
-
-        fillLittleEndianInt(payloadBin.length, 8);
         fillLittleEndianInt(seqNum, 12);
 
-        ByteBuffer buf = ByteBuffer.allocate(length);
-        buf.clear();
+        return build(pool, 16, null, answerSizeHint, message);
+    }
 
-        buf.put(header, 0, 16);
-        buf.put(payloadBin);
+    public ByteBuffer buildOneWayQuestHeader(String method, Message message) throws IOException {
+        return buildOneWayQuest(method, message, null).buffer();
+    }
 
-        buf.flip();
-        return buf;
+    public ByteBuffer buildTwoWayQuestHeader(String method, int seqNum, Message message) throws IOException {
+        return buildTwoWayQuest(method, seqNum, message, null).buffer();
+    }
+
+    public ByteBuffer buildAnswerHeader(boolean isError, int seqNum, Message message) throws IOException {
+        return buildAnswer(isError, seqNum, message, null).buffer();
     }
 }
@@ -1,5 +1,8 @@
 package com.fpnn.sdk.proto;
 
+import com.fpnn.sdk.BufferPool;
+import com.fpnn.sdk.PooledBuffer;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Map;
@@ -45,6 +48,26 @@ public class Quest extends Message {
         this.seqNum = seqNum;
     }
 
+    //-- Typed payload: see Message(PayloadEncoder).
+    public Quest(String method, PayloadEncoder encoder) {
+        this(method, false, encoder);
+    }
+
+    public Quest(String method, boolean isOneWay, PayloadEncoder encoder) {
+        super(encoder);
+        this.method = method;
+        this.isOneWay = isOneWay;
+        this.seqNum = SeqNumGenerator.gen();
+    }
+
+    //-- Lazy payload: see Message(byte[]).
+    public Quest(String method, int seqNum, boolean isOneWay, byte[] rawPayload) {
+        super(rawPayload);
+        this.method = method;
+        this.isOneWay = isOneWay;
+        this.seqNum = seqNum;
+    }
+
     public int getSeqNum() {
         return seqNum;
     }
@@ -69,4 +92,14 @@ public class Quest extends Message {
         else
             return builder.buildOneWayQuestHeader(method, this);
     }
+
+    //-- Encode into a buffer taken from pool. Caller MUST release it.
+    public PooledBuffer rawData(BufferPool pool) throws IOException {
+
+        ProtocolPackageBuilder builder = new ProtocolPackageBuilder();
+        if (isOneWay == false)
+            return builder.buildTwoWayQuest(method, seqNum, this, pool);
+        else
+            return builder.buildOneWayQuest(method, this, pool);
+    }
 }